@@ -23,7 +23,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.service.PackageChangeService;
 
 /**
  * @author fabio
@@ -34,17 +34,10 @@ public class ApplicationChangeReceiver extends BroadcastReceiver {
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		Log.i("ApplicationChangeReceiver", intent.getAction());
-		if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
+		if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction()) || Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
 			String packageName = intent.getDataString().substring(8);
-			Log.i("ApplicationChangeReceiver", packageName + " added");
-			DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(context);
-			dbHelper.appCacheDao.enablePackage(context, packageName);
-			ApplicationInfoManager.reloadAll(context.getPackageManager(), dbHelper, null, false, packageName);
-		} else if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
-			String packageName = intent.getDataString().substring(8);
-			Log.i("ApplicationChangeReceiver", packageName + " removed");
-			DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(context);
-			dbHelper.appCacheDao.disablePackage(packageName, true);
+			Log.i("ApplicationChangeReceiver", packageName + (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction()) ? " added" : " removed"));
+			PackageChangeService.packageChanged(context, packageName);
 		}
 	}
 }
\ No newline at end of file
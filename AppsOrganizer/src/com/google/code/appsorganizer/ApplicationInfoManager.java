@@ -18,103 +18,287 @@
  */
 package com.google.code.appsorganizer;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.content.Intent;
 import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Handler;
-import android.os.Message;
+import android.util.Log;
 
+import com.google.code.appsorganizer.ReloadCoordinator.ReloadPass;
 import com.google.code.appsorganizer.db.AppCacheDao;
+import com.google.code.appsorganizer.db.AppCacheWriter;
 import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.maps.AppCacheMap;
 import com.google.code.appsorganizer.model.AppCache;
+import com.google.code.appsorganizer.model.PackageFingerprint;
+import com.google.code.appsorganizer.utils.IconAtlas;
+import com.google.code.appsorganizer.utils.IconCache;
+import com.google.code.appsorganizer.utils.IconCodec;
 
 public class ApplicationInfoManager {
 
 	private ApplicationInfoManager() {
 	}
 
+	/**
+	 * Reloads all the launcher activities, if another reload is running this
+	 * call waits for it (and handler receives its progress)
+	 */
 	public static void reloadAll(PackageManager pm, DatabaseHelper dbHelper, Handler handler, boolean discardCache, String packageToReload) {
+		ReloadCoordinator.reloadAll(pm, dbHelper, handler, discardCache, packageToReload);
+	}
+
+	/**
+	 * Detaches the caller that started or joined the running reload with the
+	 * given handler, the reload is stopped when all the callers are detached
+	 * (the apps already reloaded are saved)
+	 */
+	public static void cancelReload(Handler handler) {
+		ReloadCoordinator.cancel(handler);
+	}
+
+	static void runReloadAll(PackageManager pm, DatabaseHelper dbHelper, ReloadPass pass, boolean discardCache, String packageToReload) {
 		AppCacheDao appCacheDao = dbHelper.appCacheDao;
-		synchronized (ApplicationInfoManager.class) {
-			appCacheDao.fixDuplicateApps();
-			StringBuffer installedIds = new StringBuffer("-1");
-			List<ResolveInfo> installedApplications = getAllResolveInfo(pm);
+		long start = System.currentTimeMillis();
+		ReloadCheckpoint checkpoint = new ReloadCheckpoint(dbHelper.getContext());
+		if (checkpoint.isPending()) {
+			// uninstalled apps not removed by the interrupted reload
+			discardCache |= checkpoint.isDiscardCache();
+			Log.i(AppsOrganizerApplication.TAG, "Resuming interrupted reload");
+		}
+		checkpoint.start(discardCache);
+		int iconSize = IconCache.getIconSize(dbHelper.getContext());
+		IconCodec codec = IconCodec.getInstance(dbHelper.getContext());
+		List<ResolveInfo> installedApplications = getAllResolveInfo(pm);
+		// apps of the same package are saved together, a package is
+		// completed when its fingerprint is saved
+		Collections.sort(installedApplications, PACKAGE_COMPARATOR);
+
+		pass.setSize(installedApplications.size());
 
-			if (handler != null) {
-				sendSizeMessage(handler, installedApplications.size());
+		AppCacheMap cacheMap = appCacheDao.queryForCacheMap(false);
+		// label and icon are reloaded only for packages changed since
+		// the last reload
+		HashMap<String, PackageFingerprint> storedFingerprints = dbHelper.packageFingerprintDao.getFingerprintMap();
+		HashMap<String, PackageFingerprint> fingerprints = getInstalledFingerprints(pm);
+		HashSet<String> changedPackages = getChangedPackages(installedApplications, fingerprints, storedFingerprints);
+		if (packageToReload != null) {
+			changedPackages.add(packageToReload);
+		}
+		AppCacheWriter writer = appCacheDao.createWriter();
+		boolean cancelled;
+		try {
+			writer.begin();
+			if (discardCache) {
+				writer.beginSweep();
+			}
+			saveActivities(pm, writer, pass, installedApplications, cacheMap, changedPackages, fingerprints, iconSize, codec);
+			cancelled = pass.isCancelled();
+			if (!cancelled && discardCache) {
+				writer.sweep();
 			}
+			// packages changed while the reload was running
+			Set<String> mergedPackages;
+			while (!(mergedPackages = pass.takeMergedPackages()).isEmpty()) {
+				savePackages(pm, appCacheDao, writer, mergedPackages, iconSize, codec);
+			}
+			writer.deleteUnusedIcons();
+			writer.commit();
+		} finally {
+			writer.close();
+		}
+		if (!cancelled) {
+			checkpoint.clear();
+		}
+		IconAtlas.getInstance(dbHelper.getContext(), iconSize).addAllInBackground(dbHelper.getDb());
+		Log.i(AppsOrganizerApplication.TAG, "Apps reloaded in " + (System.currentTimeMillis() - start) + "ms (" + installedApplications.size()
+				+ " activities, " + changedPackages.size() + " changed packages, " + writer.getWrittenRows() + " rows written, batch size "
+				+ writer.getSize() + (cancelled ? ", cancelled" : "") + ")");
+	}
+
+	/**
+	 * Reloads only the launcher activities of a package: new activities are
+	 * inserted, existing ones are updated and enabled, activities no longer
+	 * available (or all of them if the package is not installed) are
+	 * disabled
+	 */
+	public static void reloadPackage(PackageManager pm, DatabaseHelper dbHelper, String packageName) {
+		HashSet<String> packages = new HashSet<String>();
+		packages.add(packageName);
+		reloadPackages(pm, dbHelper, packages);
+	}
+
+	/**
+	 * Same as reloadPackage but all the packages are written in a single
+	 * transaction
+	 */
+	public static void reloadPackages(PackageManager pm, DatabaseHelper dbHelper, Set<String> packages) {
+		ReloadCoordinator.reloadPackages(pm, dbHelper, packages);
+	}
 
-			for (ResolveInfo resolveInfo : installedApplications) {
+	static void runReloadPackages(PackageManager pm, DatabaseHelper dbHelper, Set<String> packages) {
+		AppCacheWriter writer = dbHelper.appCacheDao.createWriter();
+		try {
+			writer.begin();
+			savePackages(pm, dbHelper.appCacheDao, writer, packages, IconCache.getIconSize(dbHelper.getContext()),
+					IconCodec.getInstance(dbHelper.getContext()));
+			writer.deleteUnusedIcons();
+			writer.commit();
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void savePackages(PackageManager pm, AppCacheDao appCacheDao, AppCacheWriter writer, Set<String> packages, int iconSize,
+			IconCodec codec) {
+		for (String packageName : packages) {
+			List<ResolveInfo> activities = getLauncherActivities(pm, packageName);
+			AppCacheMap cacheMap = appCacheDao.queryForCacheMap(packageName);
+			writer.beginSweep();
+			saveActivities(pm, writer, null, activities, cacheMap, packages, null, iconSize, codec);
+			writer.sweep(packageName);
+			PackageFingerprint f = getFingerprint(pm, packageName);
+			if (f != null) {
+				writer.saveFingerprint(f);
+			} else {
+				writer.deleteFingerprint(packageName);
+			}
+		}
+	}
+
+	/**
+	 * Saves the activities, if fingerprints is not null the fingerprint of a
+	 * changed package is saved after all its activities (sorted by package).
+	 * New icons are stored at iconSize pixels encoded with codec
+	 */
+	private static void saveActivities(PackageManager pm, AppCacheWriter writer, ReloadPass pass, List<ResolveInfo> activities,
+			AppCacheMap cacheMap, Set<String> changedPackages, Map<String, PackageFingerprint> fingerprints, int iconSize,
+			IconCodec codec) {
+		int threads = Math.max(1, Math.min(activities.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService iconPool = Executors.newFixedThreadPool(threads);
+		// icons are loaded in parallel but written (and notified) in
+		// the same order of activities
+		LinkedList<PendingApp> pendingApps = new LinkedList<PendingApp>();
+		int maxPending = threads * 2;
+		CompletedPackages completed = new CompletedPackages(changedPackages, fingerprints);
+		try {
+			for (ResolveInfo resolveInfo : activities) {
+				if (pass != null && pass.isCancelled()) {
+					break;
+				}
 				ComponentInfo a = resolveInfo.activityInfo;
-				AppCache appCache = appCacheDao.queryForAppCache(a.packageName, a.name, false, !discardCache);
-				String label = loadAppLabel(pm, a, discardCache || a.packageName.equals(packageToReload), appCacheDao, appCache, installedIds);
-				if (handler != null) {
-					Message message = new Message();
-					message.obj = label;
-					handler.sendMessage(message);
+				int pos = cacheMap.getPosition(a.packageName + AppCacheMap.SEPARATOR + a.name);
+				AppCache appCache = null;
+				if (pos >= 0) {
+					appCache = cacheMap.getAt(pos);
+					writer.markSeen(appCache.getId());
+				}
+				PendingApp p = new PendingApp(a, appCache, changedPackages.contains(a.packageName));
+				if (p.loadedObj == null || p.loadedObj.iconId == 0 || p.refresh) {
+					p.image = iconPool.submit(new IconLoader(pm, a, iconSize, codec));
+				}
+				pendingApps.add(p);
+				if (pendingApps.size() > maxPending) {
+					saveApp(pm, pendingApps.removeFirst(), writer, pass, completed);
 				}
 			}
-			if (discardCache) {
-				appCacheDao.removeUninstalledApps(installedIds);
+			while (!pendingApps.isEmpty()) {
+				saveApp(pm, pendingApps.removeFirst(), writer, pass, completed);
+			}
+			if (pass == null || !pass.isCancelled()) {
+				completed.completeCurrent(writer);
+			}
+		} finally {
+			iconPool.shutdownNow();
+		}
+	}
+
+	private static HashSet<String> getChangedPackages(List<ResolveInfo> activities, HashMap<String, PackageFingerprint> fingerprints,
+			HashMap<String, PackageFingerprint> storedFingerprints) {
+		HashSet<String> checkedPackages = new HashSet<String>();
+		HashSet<String> changedPackages = new HashSet<String>();
+		for (ResolveInfo resolveInfo : activities) {
+			String packageName = resolveInfo.activityInfo.packageName;
+			if (checkedPackages.add(packageName)) {
+				PackageFingerprint f = fingerprints.get(packageName);
+				if (f == null || !f.sameAs(storedFingerprints.get(packageName))) {
+					changedPackages.add(packageName);
+				}
 			}
 		}
+		return changedPackages;
+	}
+
+	private static PackageFingerprint getFingerprint(PackageManager pm, String packageName) {
+		try {
+			return PackageFingerprint.create(pm.getPackageInfo(packageName, 0));
+		} catch (NameNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static HashMap<String, PackageFingerprint> getInstalledFingerprints(PackageManager pm) {
+		List<PackageInfo> packages = pm.getInstalledPackages(0);
+		HashMap<String, PackageFingerprint> m = new HashMap<String, PackageFingerprint>(packages.size());
+		for (PackageInfo p : packages) {
+			m.put(p.packageName, PackageFingerprint.create(p));
+		}
+		return m;
 	}
 
-	private static void sendSizeMessage(Handler handler, int size) {
-		Message message = new Message();
-		message.arg1 = size;
-		handler.sendMessage(message);
+	private static void saveApp(PackageManager pm, PendingApp p, AppCacheWriter writer, ReloadPass pass, CompletedPackages completed) {
+		String label = loadAppLabel(pm, p, writer);
+		completed.appSaved(writer, p.activityInfo.packageName);
+		if (pass != null) {
+			pass.progress(label);
+		}
 	}
 
-	private static String loadAppLabel(PackageManager pm, ComponentInfo a, boolean discardCache, AppCacheDao appCacheDao, AppCache loadedObj,
-			StringBuffer installedIds) {
+	private static String loadAppLabel(PackageManager pm, PendingApp p, AppCacheWriter writer) {
+		ComponentInfo a = p.activityInfo;
+		AppCache loadedObj = p.loadedObj;
 		boolean changed = false;
 		String label = null;
-		byte[] image = null;
 		if (loadedObj != null) {
 			label = loadedObj.label;
-			image = loadedObj.image;
 			if (loadedObj.disabled) {
 				changed = true;
 			}
 		}
-		if (label == null || discardCache) {
+		if (label == null || p.refresh) {
 			CharSequence l = a.loadLabel(pm);
 			if (l != null) {
 				label = l.toString();
 				changed = true;
 			}
 		}
-		if (image == null || discardCache) {
-			Drawable drawable = a.loadIcon(pm);
-			if (drawable instanceof BitmapDrawable) {
-				Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
-				int width = bitmap.getWidth();
-				int height = bitmap.getHeight();
-				if (width > 72 || height > 72) {
-					bitmap = scaleImage(bitmap, width, height);
-				}
-				ByteArrayOutputStream os = new ByteArrayOutputStream();
-				boolean compressed = bitmap.compress(CompressFormat.PNG, 100, os);
-				if (!compressed) {
-					bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
-					os = new ByteArrayOutputStream();
-					compressed = bitmap.compress(CompressFormat.PNG, 100, os);
-				}
-				image = os.toByteArray();
-				changed = true;
-			}
+		byte[] image = p.getImage();
+		if (image != null) {
+			changed = true;
 		}
 		if (changed) {
 			// if label is not in cache table
@@ -122,60 +306,180 @@ public class ApplicationInfoManager {
 				// retrieve and store label
 				AppCache obj = new AppCache(a.packageName, a.name, label);
 				obj.image = image;
-				long insertedId = appCacheDao.insert(obj);
-				installedIds.append(',').append(insertedId);
+				writer.insert(obj);
+			} else if (image != null) {
+				writer.updateLabel(a.packageName, a.name, label, image, false);
 			} else {
-				appCacheDao.updateLabel(a.packageName, a.name, label, image, false);
-				installedIds.append(',').append(loadedObj.getId());
+				writer.updateLabel(a.packageName, a.name, label, false);
 			}
-		} else {
-			installedIds.append(',').append(loadedObj.getId());
 		}
 		return label;
 	}
 
-	private static Bitmap scaleImage(Bitmap bitmap, int width, int height) {
-		int newWidth = 72;
-		int newHeight = 72;
+	private static class PendingApp {
+		final ComponentInfo activityInfo;
+		final AppCache loadedObj;
+		final boolean refresh;
+		Future<byte[]> image;
+
+		PendingApp(ComponentInfo activityInfo, AppCache loadedObj, boolean refresh) {
+			this.activityInfo = activityInfo;
+			this.loadedObj = loadedObj;
+			this.refresh = refresh;
+		}
+
+		byte[] getImage() {
+			if (image == null) {
+				return null;
+			}
+			try {
+				return image.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Log.w(AppsOrganizerApplication.TAG, "Error loading icon of " + activityInfo.name, e.getCause());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Tracks the package of the apps saved (in package order), when all the
+	 * apps of a changed package are saved its fingerprint is saved too
+	 */
+	private static class CompletedPackages {
+		private final Set<String> changedPackages;
+		private final Map<String, PackageFingerprint> fingerprints;
+		private String current;
+
+		CompletedPackages(Set<String> changedPackages, Map<String, PackageFingerprint> fingerprints) {
+			this.changedPackages = changedPackages;
+			this.fingerprints = fingerprints;
+		}
+
+		void appSaved(AppCacheWriter writer, String packageName) {
+			if (!packageName.equals(current)) {
+				completeCurrent(writer);
+				current = packageName;
+			}
+		}
+
+		void completeCurrent(AppCacheWriter writer) {
+			if (current != null) {
+				if (fingerprints != null && changedPackages.contains(current)) {
+					PackageFingerprint f = fingerprints.get(current);
+					if (f != null) {
+						writer.saveFingerprint(f);
+					}
+				}
+			}
+		}
+	}
+
+	private static class IconLoader implements Callable<byte[]> {
+		private final PackageManager pm;
+		private final ComponentInfo activityInfo;
+		private final int size;
+		private final IconCodec codec;
+
+		IconLoader(PackageManager pm, ComponentInfo activityInfo, int size, IconCodec codec) {
+			this.pm = pm;
+			this.activityInfo = activityInfo;
+			this.size = size;
+			this.codec = codec;
+		}
+
+		public byte[] call() {
+			return loadIcon(pm, activityInfo, size, codec);
+		}
+	}
+
+	private static byte[] loadIcon(PackageManager pm, ComponentInfo a, int size, IconCodec codec) {
+		Bitmap bitmap = loadIconBitmap(pm, a, size);
+		if (bitmap != null) {
+			byte[] image = codec.encode(bitmap);
+			if (image == null) {
+				bitmap = Bitmap.createScaledBitmap(bitmap, bitmap.getWidth(), bitmap.getHeight(), true);
+				image = codec.encode(bitmap);
+			}
+			return image;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the icon of the activity scaled to fit size x size pixels
+	 */
+	static Bitmap loadIconBitmap(PackageManager pm, ComponentInfo a, int size) {
+		Drawable drawable = a.loadIcon(pm);
+		if (drawable instanceof BitmapDrawable) {
+			Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+			int width = bitmap.getWidth();
+			int height = bitmap.getHeight();
+			if (width > size || height > size) {
+				bitmap = scaleImage(bitmap, width, height, size);
+			}
+			return bitmap;
+		}
+		return null;
+	}
+
+	private static Bitmap scaleImage(Bitmap bitmap, int width, int height, int size) {
+		int newWidth = size;
+		int newHeight = size;
 		if (width > height) {
-			newHeight = 72 * height / width;
+			newHeight = size * height / width;
 		} else if (width < height) {
-			newWidth = 72 * width / height;
+			newWidth = size * width / height;
 		}
 		Bitmap bitmap2 = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
 
-		return createSquareBitmap(bitmap2);
+		return createSquareBitmap(bitmap2, size);
 	}
 
-	private static Bitmap createSquareBitmap(Bitmap bitmap) {
-		Bitmap res = Bitmap.createBitmap(72, 72, Config.ARGB_8888);
+	private static Bitmap createSquareBitmap(Bitmap bitmap, int size) {
+		Bitmap res = Bitmap.createBitmap(size, size, Config.ARGB_8888);
 		Canvas c = new Canvas(res);
 		BitmapDrawable d = new BitmapDrawable(bitmap);
 		int width = bitmap.getWidth();
 		int height = bitmap.getHeight();
-		int left = (72 - width) / 2;
-		int top = (72 - height) / 2;
+		int left = (size - width) / 2;
+		int top = (size - height) / 2;
 		d.setBounds(left, top, left + width, top + height);
 		d.draw(c);
 		return res;
 	}
 
-	private static List<ResolveInfo> getAllResolveInfo(PackageManager pm) {
+	private static final Comparator<ResolveInfo> PACKAGE_COMPARATOR = new Comparator<ResolveInfo>() {
+		public int compare(ResolveInfo r1, ResolveInfo r2) {
+			int c = r1.activityInfo.packageName.compareTo(r2.activityInfo.packageName);
+			return c != 0 ? c : r1.activityInfo.name.compareTo(r2.activityInfo.name);
+		}
+	};
+
+	static List<ResolveInfo> getAllResolveInfo(PackageManager pm) {
 		Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
 		mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
 
 		return pm.queryIntentActivities(mainIntent, 0);
 	}
 
-	public static ArrayList<String> getAllActivityNames(PackageManager pm, String packageName) {
+	private static List<ResolveInfo> getLauncherActivities(PackageManager pm, String packageName) {
+		if (Integer.parseInt(Build.VERSION.SDK) >= 4) {
+			Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+			mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+			mainIntent.setPackage(packageName);
+			return pm.queryIntentActivities(mainIntent, 0);
+		}
+		// Intent.setPackage is not available on cupcake
 		List<ResolveInfo> allResolveInfo = getAllResolveInfo(pm);
-		ArrayList<String> activityNames = new ArrayList<String>();
+		ArrayList<ResolveInfo> activities = new ArrayList<ResolveInfo>();
 		for (ResolveInfo resolveInfo : allResolveInfo) {
 			if (resolveInfo.activityInfo.packageName.equals(packageName)) {
-				activityNames.add(resolveInfo.activityInfo.name);
+				activities.add(resolveInfo);
 			}
 		}
-		return activityNames;
+		return activities;
 	}
 
 }
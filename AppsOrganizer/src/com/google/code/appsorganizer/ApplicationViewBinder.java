@@ -21,7 +21,6 @@ package com.google.code.appsorganizer;
 import android.app.Activity;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
 import android.preference.PreferenceManager;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -36,6 +35,8 @@ import android.widget.SimpleCursorAdapter.ViewBinder;
 import com.google.code.appsorganizer.db.AppCacheDao;
 import com.google.code.appsorganizer.db.DatabaseHelper;
 import com.google.code.appsorganizer.dialogs.GenericDialogManagerActivity;
+import com.google.code.appsorganizer.utils.AsyncIconLoader;
+import com.google.code.appsorganizer.utils.IconCache;
 
 /**
  * @author fabio
@@ -44,14 +45,18 @@ import com.google.code.appsorganizer.dialogs.GenericDialogManagerActivity;
 public class ApplicationViewBinder implements ViewBinder {
 
 	public static final String[] COLS = new String[] { AppCacheDao.ID_COL_NAME, AppCacheDao.LABEL_COL_NAME, AppCacheDao.NAME_COL_NAME,
-			AppCacheDao.STARRED_COL_NAME, AppCacheDao.IMAGE_COL_NAME, AppCacheDao.PACKAGE_NAME_COL_NAME };
+			AppCacheDao.STARRED_COL_NAME, AppCacheDao.ICON_ID_COL_NAME, AppCacheDao.PACKAGE_NAME_COL_NAME };
 
 	public static final int[] VIEWS = new int[] { R.id.image, R.id.name, R.id.labels, R.id.starCheck };
 
+	private static final int ID = 0;
+
 	private static final int APP_LABEL = 1;
 
 	private static final int STARRED = 3;
 
+	private static final int ICON_ID = 4;
+
 	public static final int NAME = 2;
 
 	public static final int PACKAGE = 5;
@@ -62,10 +67,13 @@ public class ApplicationViewBinder implements ViewBinder {
 
 	private final ChooseLabelDialogCreator chooseLabelDialog;
 
+	private final AsyncIconLoader iconLoader;
+
 	public ApplicationViewBinder(DatabaseHelper dbHelper, Activity context, ChooseLabelDialogCreator chooseLabelDialog) {
 		this.dbHelper = dbHelper;
 		this.context = context;
 		this.chooseLabelDialog = chooseLabelDialog;
+		this.iconLoader = new AsyncIconLoader(dbHelper.getDb(), IconCache.getIconSize(context));
 	}
 
 	private static OnLongClickListener onLongClickListener = new OnLongClickListener() {
@@ -117,7 +125,7 @@ public class ApplicationViewBinder implements ViewBinder {
 
 	private void bindLabels(TextView view, final Cursor cursor) {
 		view.setOnLongClickListener(onLongClickListener);
-		view.setText(dbHelper.appsLabelDao.getLabelListString(cursor.getString(PACKAGE), cursor.getString(NAME)));
+		view.setText(dbHelper.appsLabelDao.getLabelListString(cursor.getLong(ID)));
 		addOnClickListener(view, cursor);
 	}
 
@@ -129,10 +137,10 @@ public class ApplicationViewBinder implements ViewBinder {
 
 	private void bindImage(ImageView view, final Cursor cursor) {
 		view.setOnLongClickListener(onLongClickListener);
-		byte[] imageBytes = cursor.getBlob(4);
-		if (imageBytes != null) {
-			view.setImageBitmap(BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length));
+		if (!cursor.isNull(ICON_ID)) {
+			iconLoader.load(view, cursor.getLong(ICON_ID), R.drawable.icon_default);
 		} else {
+			iconLoader.cancel(view);
 			view.setImageResource(R.drawable.icon_default);
 		}
 		addOnClickListener(view, cursor);
@@ -20,6 +20,8 @@ package com.google.code.appsorganizer;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
+import android.content.DialogInterface.OnCancelListener;
 import android.os.Handler;
 import android.os.Message;
 
@@ -48,7 +50,7 @@ public class AppsReloader {
 				} catch (IllegalArgumentException ignored) {
 				}
 			} else {
-				pd.incrementProgressBy(1);
+				pd.setProgress(msg.arg2);
 			}
 		}
 	};
@@ -60,8 +62,13 @@ public class AppsReloader {
 		pd.setTitle(context.getText(R.string.preparing_apps_list));
 		pd.setMessage(context.getText(R.string.please_wait_loading));
 		pd.setIndeterminate(false);
-		pd.setCancelable(false);
 		pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		pd.setCancelable(true);
+		pd.setOnCancelListener(new OnCancelListener() {
+			public void onCancel(DialogInterface dialog) {
+				ApplicationInfoManager.cancelReload(handler);
+			}
+		});
 		pd.show();
 
 		Thread t = new Thread() {
@@ -18,6 +18,7 @@
  */
 package com.google.code.appsorganizer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 
 import android.app.AlertDialog;
@@ -88,25 +89,24 @@ public class ChooseAppsDialogCreator extends GenericDialogCreator {
 	}
 
 	private void save(HashSet<Long> checkedSet) {
-		boolean changed = false;
-		DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(owner);
+		ArrayList<Long> added = new ArrayList<Long>();
+		ArrayList<Long> removed = new ArrayList<Long>();
 		int count = adapter.getCount();
 		for (int i = 0; i < count; i++) {
 			Cursor app = (Cursor) listView.getItemAtPosition(i);
 			long appId = app.getLong(0);
 			if (listView.isItemChecked(i)) {
 				if (!checkedSet.contains(appId)) {
-					dbHelper.appsLabelDao.insert(app.getString(2), app.getString(3), currentLabelId);
-					changed = true;
+					added.add(appId);
 				}
 			} else {
 				if (checkedSet.contains(appId)) {
-					dbHelper.appsLabelDao.delete(app.getString(2), app.getString(3), currentLabelId);
-					changed = true;
+					removed.add(appId);
 				}
 			}
 		}
-		if (changed) {
+		DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(owner);
+		if (dbHelper.appsLabelDao.updateAppsOfLabel(currentLabelId, added, removed).isChanged()) {
 			onOkClickListener.onClick(null, null, 0);
 		}
 	}
@@ -53,7 +53,8 @@ public class ChooseLabelDialogCreator extends GenericDialogCreator {
 		super(dialogManager);
 		this.onOkClickListener = onOkClickListener;
 
-		newLabelDialog = new NewLabelDialog(dialogManager, new OnOkClickListener() {
+		// the new label is inserted by AppLabelSaver when the labels are saved
+		newLabelDialog = new NewLabelDialog(dialogManager, false, new OnOkClickListener() {
 
 			private static final long serialVersionUID = 7421660517919410764L;
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.code.appsorganizer.utils.IconCache;
+import com.google.code.appsorganizer.utils.IconCodec;
+
+/**
+ * Compares the icon codecs on the icons of the installed apps: for every
+ * codec reports the time to encode and decode all the icons and the average
+ * size of an encoded icon
+ */
+public class IconCodecBenchmark {
+
+	private IconCodecBenchmark() {
+	}
+
+	/**
+	 * Returns the report (also written in the log), to be called outside the
+	 * ui thread
+	 */
+	public static String run(Context context) {
+		PackageManager pm = context.getPackageManager();
+		int size = IconCache.getIconSize(context);
+		List<ResolveInfo> activities = ApplicationInfoManager.getAllResolveInfo(pm);
+		ArrayList<Bitmap> icons = new ArrayList<Bitmap>(activities.size());
+		for (ResolveInfo resolveInfo : activities) {
+			Bitmap bitmap = ApplicationInfoManager.loadIconBitmap(pm, resolveInfo.activityInfo, size);
+			if (bitmap != null) {
+				icons.add(bitmap);
+			}
+		}
+
+		StringBuilder report = new StringBuilder();
+		report.append(icons.size()).append(" icons ").append(size).append("x").append(size).append('\n');
+		if (icons.isEmpty()) {
+			return report.toString();
+		}
+		for (IconCodec codec : IconCodec.getAvailableCodecs()) {
+			byte[][] images = new byte[icons.size()][];
+			long bytes = 0;
+			long start = SystemClock.uptimeMillis();
+			for (int i = 0; i < images.length; i++) {
+				images[i] = codec.encode(icons.get(i));
+				if (images[i] != null) {
+					bytes += images[i].length;
+				}
+			}
+			long encodeTime = SystemClock.uptimeMillis() - start;
+
+			start = SystemClock.uptimeMillis();
+			for (byte[] image : images) {
+				if (image != null) {
+					Bitmap bitmap = IconCodec.decode(image);
+					if (bitmap != null) {
+						bitmap.recycle();
+					}
+				}
+			}
+			long decodeTime = SystemClock.uptimeMillis() - start;
+
+			String line = codec.getName() + ": encode " + encodeTime + "ms, decode " + decodeTime + "ms, " + bytes / images.length
+					+ " bytes/icon";
+			Log.i(AppsOrganizerApplication.TAG, "Icon benchmark " + line);
+			report.append(line).append('\n');
+		}
+		return report.toString();
+	}
+}
@@ -25,7 +25,6 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.MergeCursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 import android.view.ContextMenu;
@@ -54,6 +53,7 @@ import com.google.code.appsorganizer.dialogs.SimpleDialog;
 import com.google.code.appsorganizer.dialogs.TextEntryDialog;
 import com.google.code.appsorganizer.model.Label;
 import com.google.code.appsorganizer.shortcut.ShortcutCreator;
+import com.google.code.appsorganizer.utils.IconCache;
 
 public class LabelListActivity extends ExpandableListActivityWithDialog implements GenericDialogManagerActivity {
 	private static final int MENU_ITEM_SELECT_APPS = 2;
@@ -161,8 +161,7 @@ public class LabelListActivity extends ExpandableListActivityWithDialog implemen
 
 				v.setText(cursor.getString(1));
 				if (!cursor.isNull(3)) {
-					byte[] imageBytes = cursor.getBlob(3);
-					image.setImageBitmap(BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length));
+					image.setImageBitmap(IconCache.getInstance().getLabelIcon(cursor.getLong(0), cursor.getBlob(3), IconCache.getIconSize(context)));
 				} else {
 					int icon = cursor.getInt(2);
 					if (icon != 0) {
@@ -199,10 +198,9 @@ public class LabelListActivity extends ExpandableListActivityWithDialog implemen
 
 				public void onClick(CharSequence charSequence, DialogInterface dialog, int which) {
 					String labelName = charSequence.toString();
-					if (dbHelper.labelDao.labelAlreadyExists(labelName)) {
+					if (dbHelper.labelDao.updateName(labelId, labelName) == 0) {
 						labelAlreadExistsDialog.showDialog();
 					} else {
-						dbHelper.labelDao.updateName(labelId, labelName);
 						AppsOrganizerAppWidgetProvider.updateAppWidget(LabelListActivity.this, dbHelper.labelDao.queryById(labelId));
 						requeryCursor();
 					}
@@ -286,8 +284,7 @@ public class LabelListActivity extends ExpandableListActivityWithDialog implemen
 			Cursor c = getExpandableListAdapter().getGroup(groupPos);
 			menu.setHeaderTitle(c.getString(1));
 			if (!c.isNull(3)) {
-				byte[] imageBytes = c.getBlob(3);
-				Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+				Bitmap bitmap = IconCache.getInstance().getLabelIcon(c.getLong(0), c.getBlob(3), IconCache.getIconSize(this));
 				menu.setHeaderIcon(new BitmapDrawable(bitmap));
 			} else {
 				int icon = c.getInt(2);
@@ -5,7 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.service.PackageChangeService;
 
 /**
  * @author fabio
@@ -16,16 +16,8 @@ public class MountReceiver extends BroadcastReceiver {
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		Log.i("AppsOrganizerMountReceiver", intent.getAction());
-		try {
-			// aspetto un secondo, potrebbero non essere ancora disponibili le
-			// app su sd
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
-		}
-		DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(context);
-		ApplicationInfoManager.reloadAll(context.getPackageManager(), dbHelper, null, false, null);
-		// rimetto first time in modo da far ricaricare la lista delle
-		// applicazioni
-		SplashScreenActivity.firstTime = true;
+		// the reload is delayed by the service, apps on sd could be not
+		// available yet
+		PackageChangeService.mediaMounted(context);
 	}
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ package com.google.code.appsorganizer;
 import android.content.DialogInterface;
 
 import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.db.LabelDao;
 import com.google.code.appsorganizer.dialogs.GenericDialogManager;
 import com.google.code.appsorganizer.dialogs.OnOkClickListener;
 import com.google.code.appsorganizer.dialogs.SimpleDialog;
@@ -15,7 +16,13 @@ public class NewLabelDialog extends TextEntryDialog {
 
 	private final SimpleDialog labelAlreadExistsDialog;
 
-	public NewLabelDialog(GenericDialogManager dialogManager, final OnOkClickListener onLabelAdded) {
+	/**
+	 * @param insertLabel
+	 *            if true the label is inserted by the dialog (the existing
+	 *            names are detected by the insert), otherwise the caller
+	 *            saves it later and the name is only checked
+	 */
+	public NewLabelDialog(GenericDialogManager dialogManager, final boolean insertLabel, final OnOkClickListener onLabelAdded) {
 		super(dialogManager, dialogManager.getString(R.string.label_name), null);
 
 		labelAlreadExistsDialog = new SimpleDialog(dialogManager, dialogManager.getString(R.string.label_already_exists));
@@ -27,7 +34,14 @@ public class NewLabelDialog extends TextEntryDialog {
 
 			public void onClick(CharSequence t, DialogInterface dialog, int which) {
 				if (t != null && t.length() > 0) {
-					if (DatabaseHelper.initOrSingleton(getOwner()).labelDao.labelAlreadyExists(t.toString())) {
+					LabelDao labelDao = DatabaseHelper.initOrSingleton(getOwner()).labelDao;
+					boolean exists;
+					if (insertLabel) {
+						exists = labelDao.insertNew(t.toString()) == -1;
+					} else {
+						exists = labelDao.labelAlreadyExists(t.toString());
+					}
+					if (exists) {
 						labelAlreadExistsDialog.showDialog();
 					} else {
 						onLabelAdded.onClick(t, dialog, which);
@@ -85,12 +85,11 @@ public class OptionMenuManager {
 					}
 				});
 		aboutDialogCreator = new AboutDialogCreator(genericDialogManager);
-		newLabelDialog = new NewLabelDialog(genericDialogManager, new OnOkClickListener() {
+		newLabelDialog = new NewLabelDialog(genericDialogManager, true, new OnOkClickListener() {
 
 			private static final long serialVersionUID = 1036198138637107577L;
 
 			public void onClick(CharSequence l, DialogInterface dialog, int which) {
-				dbHelper.labelDao.insert(l.toString());
 				OptionMenuManager.this.onOkClickListener.onClick(l, dialog, which);
 			}
 		});
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * State of a reload not completed (cancelled or killed). The package
+ * fingerprints are the real checkpoint: they are committed with the apps of
+ * their package, so the next reload skips the packages already completed.
+ * This only remembers that a reload was interrupted and if the uninstalled
+ * apps must be still removed
+ */
+class ReloadCheckpoint {
+
+	private static final String PENDING = "reload_pending";
+
+	private static final String DISCARD_CACHE = "reload_discard_cache";
+
+	private final SharedPreferences settings;
+
+	ReloadCheckpoint(Context context) {
+		settings = context.getSharedPreferences("appsOrganizer_pref", 0);
+	}
+
+	boolean isPending() {
+		return settings.getBoolean(PENDING, false);
+	}
+
+	boolean isDiscardCache() {
+		return settings.getBoolean(DISCARD_CACHE, false);
+	}
+
+	void start(boolean discardCache) {
+		SharedPreferences.Editor editor = settings.edit();
+		editor.putBoolean(PENDING, true);
+		editor.putBoolean(DISCARD_CACHE, discardCache);
+		editor.commit();
+	}
+
+	void clear() {
+		SharedPreferences.Editor editor = settings.edit();
+		editor.remove(PENDING);
+		editor.remove(DISCARD_CACHE);
+		editor.commit();
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.pm.PackageManager;
+import android.os.Handler;
+
+import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.utils.ProgressReporter;
+
+/**
+ * Single writer of the apps table. A reload requested while another one is
+ * running joins it (its handler receives the progress of the running pass)
+ * instead of scanning all the packages again; package reloads requested
+ * while a full reload is running are merged into it. A pass is cancelled
+ * only when all the callers that started or joined it cancel it
+ */
+class ReloadCoordinator {
+
+	private static final Object lock = new Object();
+
+	private static final Object writerLock = new Object();
+
+	private static ReloadPass current;
+
+	private ReloadCoordinator() {
+	}
+
+	static void reloadAll(PackageManager pm, DatabaseHelper dbHelper, Handler handler, boolean discardCache, String packageToReload) {
+		ReloadPass pass = null;
+		boolean owner = false;
+		while (pass == null) {
+			ReloadPass running;
+			synchronized (lock) {
+				running = current;
+				if (running == null) {
+					current = pass = new ReloadPass(discardCache);
+					owner = true;
+				} else if (running.discardCache || !discardCache) {
+					pass = running;
+				}
+			}
+			if (pass == null) {
+				// the running pass doesn't remove uninstalled apps, the
+				// new one starts when it ends
+				running.waitFinished();
+			} else if (!pass.join(handler)) {
+				// finished in the meantime, a new pass is needed
+				pass = null;
+			}
+		}
+		if (owner) {
+			try {
+				synchronized (writerLock) {
+					ApplicationInfoManager.runReloadAll(pm, dbHelper, pass, discardCache, packageToReload);
+				}
+			} finally {
+				synchronized (lock) {
+					current = null;
+				}
+				pass.finish();
+			}
+		} else {
+			boolean merged = packageToReload == null || pass.mergePackage(packageToReload);
+			pass.waitFinished();
+			if (packageToReload != null) {
+				HashSet<String> packages = new HashSet<String>();
+				packages.add(packageToReload);
+				if (!merged || !pass.takeUnprocessed(packages).isEmpty()) {
+					reloadPackages(pm, dbHelper, packages);
+				}
+			}
+		}
+	}
+
+	static void cancel(Handler handler) {
+		synchronized (lock) {
+			if (current != null) {
+				current.cancel(handler);
+			}
+		}
+	}
+
+	static void reloadPackages(PackageManager pm, DatabaseHelper dbHelper, Set<String> packages) {
+		ReloadPass running;
+		synchronized (lock) {
+			running = current;
+		}
+		if (running != null && running.mergePackages(packages)) {
+			running.waitFinished();
+			// reloaded by the pass unless it failed before
+			packages = running.takeUnprocessed(packages);
+			if (packages.isEmpty()) {
+				return;
+			}
+		}
+		synchronized (writerLock) {
+			ApplicationInfoManager.runReloadPackages(pm, dbHelper, packages);
+		}
+	}
+
+	/**
+	 * State of a full reload shared with the callers that joined it
+	 */
+	static class ReloadPass {
+
+		final boolean discardCache;
+
+		private final HashMap<Handler, ProgressReporter> reporters = new HashMap<Handler, ProgressReporter>(2);
+
+		/**
+		 * callers that started or joined the pass and didn't cancel it
+		 */
+		private int callers;
+
+		private HashSet<String> mergedPackages = new HashSet<String>();
+
+		/**
+		 * packages merged but not reloaded because the pass failed
+		 */
+		private final HashSet<String> unprocessed = new HashSet<String>();
+
+		/**
+		 * packages returned by the last takeMergedPackages
+		 */
+		private Set<String> taken = new HashSet<String>();
+
+		private boolean closed;
+
+		private boolean finished;
+
+		private volatile boolean cancelled;
+
+		private int size;
+
+		private int position;
+
+		private String label;
+
+		ReloadPass(boolean discardCache) {
+			this.discardCache = discardCache;
+		}
+
+		/**
+		 * Adds a caller (the handler receives the progress, it can be null),
+		 * returns false if the pass is already finished
+		 */
+		synchronized boolean join(Handler handler) {
+			if (finished) {
+				return false;
+			}
+			if (handler == null) {
+				callers++;
+			} else if (!reporters.containsKey(handler)) {
+				// a handler that joins twice is a single caller
+				callers++;
+				ProgressReporter reporter = new ProgressReporter(handler);
+				reporters.put(handler, reporter);
+				if (size > 0) {
+					reporter.setMax(size);
+					reporter.update(position, label);
+				}
+			}
+			return true;
+		}
+
+		synchronized void setSize(int size) {
+			this.size = size;
+			for (ProgressReporter reporter : reporters.values()) {
+				reporter.setMax(size);
+			}
+		}
+
+		synchronized void progress(String label) {
+			this.label = label;
+			position++;
+			for (ProgressReporter reporter : reporters.values()) {
+				reporter.update(position, label);
+			}
+		}
+
+		/**
+		 * Detaches the caller of the handler, the pass is cancelled when no
+		 * caller is left. Callers without handler can't cancel
+		 */
+		synchronized void cancel(Handler handler) {
+			if (handler != null && reporters.remove(handler) != null && --callers == 0) {
+				cancelled = true;
+			}
+		}
+
+		boolean isCancelled() {
+			return cancelled;
+		}
+
+		synchronized boolean mergePackage(String packageName) {
+			if (closed) {
+				return false;
+			}
+			mergedPackages.add(packageName);
+			return true;
+		}
+
+		synchronized boolean mergePackages(Set<String> packages) {
+			if (closed) {
+				return false;
+			}
+			mergedPackages.addAll(packages);
+			return true;
+		}
+
+		/**
+		 * Returns the packages merged since the last call (the ones returned
+		 * by the previous call are reloaded), when there are no more packages
+		 * the pass doesn't accept other packages
+		 */
+		synchronized Set<String> takeMergedPackages() {
+			HashSet<String> packages = mergedPackages;
+			if (packages.isEmpty()) {
+				closed = true;
+			} else {
+				mergedPackages = new HashSet<String>();
+			}
+			taken = packages;
+			return packages;
+		}
+
+		synchronized void finish() {
+			closed = true;
+			finished = true;
+			// not empty only if the owner failed
+			unprocessed.addAll(taken);
+			unprocessed.addAll(mergedPackages);
+			mergedPackages.clear();
+			for (ProgressReporter reporter : reporters.values()) {
+				reporter.flush();
+			}
+			reporters.clear();
+			notifyAll();
+		}
+
+		/**
+		 * Returns the given packages merged in the pass but not reloaded (the
+		 * pass failed before), the caller must reload them
+		 */
+		synchronized Set<String> takeUnprocessed(Set<String> packages) {
+			HashSet<String> ret = new HashSet<String>();
+			for (String packageName : packages) {
+				if (unprocessed.remove(packageName)) {
+					ret.add(packageName);
+				}
+			}
+			return ret;
+		}
+
+		synchronized void waitFinished() {
+			while (!finished) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ package com.google.code.appsorganizer;
 
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
+import android.content.DialogInterface.OnCancelListener;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -223,8 +224,10 @@ public class SplashScreenActivity extends ListActivityWithDialog {
 					}
 				}
 			} else {
-				pd.incrementProgressBy(1);
-				pd.setMessage(msg.obj.toString());
+				pd.setProgress(msg.arg2);
+				if (msg.obj != null) {
+					pd.setMessage(msg.obj.toString());
+				}
 			}
 		}
 	};
@@ -242,8 +245,13 @@ public class SplashScreenActivity extends ListActivityWithDialog {
 		pd.setTitle(getText(R.string.preparing_apps_list));
 		pd.setMessage(getText(R.string.please_wait_loading));
 		pd.setIndeterminate(false);
-		pd.setCancelable(false);
 		pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		pd.setCancelable(true);
+		pd.setOnCancelListener(new OnCancelListener() {
+			public void onCancel(DialogInterface dialog) {
+				ApplicationInfoManager.cancelReload(handler);
+			}
+		});
 		pd.show();
 		Thread t = new Thread() {
 			@Override
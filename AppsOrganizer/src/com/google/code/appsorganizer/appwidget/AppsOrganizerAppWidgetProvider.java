@@ -22,7 +22,6 @@ import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.Context;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 import android.widget.RemoteViews;
 
@@ -31,6 +30,7 @@ import com.google.code.appsorganizer.db.DatabaseHelper;
 import com.google.code.appsorganizer.model.Label;
 import com.google.code.appsorganizer.shortcut.LabelShortcut;
 import com.google.code.appsorganizer.shortcut.ShortcutCreator;
+import com.google.code.appsorganizer.utils.IconCache;
 
 public class AppsOrganizerAppWidgetProvider extends AppWidgetProvider {
 	// log tag
@@ -87,7 +87,7 @@ public class AppsOrganizerAppWidgetProvider extends AppWidgetProvider {
 			views.setTextViewText(R.id.appwidget_text, label.getLabel());
 			byte[] imageBytes = label.getImageBytes();
 			if (imageBytes != null) {
-				views.setImageViewBitmap(R.id.appwidget_image, BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length));
+				views.setImageViewBitmap(R.id.appwidget_image, IconCache.getInstance().getLabelIcon(label.getId(), imageBytes, 0));
 			} else {
 				views.setImageViewResource(R.id.appwidget_image, label.getIcon());
 			}
@@ -18,11 +18,16 @@
  */
 package com.google.code.appsorganizer.chooseicon;
 
-import java.io.BufferedInputStream;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectIterator;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -31,13 +36,13 @@ import android.app.ProgressDialog;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.GridView;
@@ -46,14 +51,50 @@ import android.widget.ImageView;
 import com.google.code.appsorganizer.R;
 import com.google.code.appsorganizer.dialogs.ActivityWithDialog;
 
+/**
+ * Shows the asset images of an apk: only the thumbnails of the visible cells
+ * (and of PREFETCH cells before and after them) are decoded, subsampled to
+ * the cell size; the full image is decoded when it's chosen
+ */
 public class ChooseIconFromPackActivity extends ActivityWithDialog {
 
 	private static final int BUFFER_SIZE = 4096;
 
+	private static final int CELL_SIZE = 50;
+
+	private static final int PREFETCH = 20;
+
 	private GridView mGrid;
 
 	private String apkName;
 
+	private ZipFile zipFile;
+
+	private ArrayList<ZipEntry> images;
+
+	private final ExecutorService decoder = Executors.newSingleThreadExecutor();
+
+	/**
+	 * used only by the decoder thread
+	 */
+	private final EntryReader thumbnailReader = new EntryReader();
+
+	/**
+	 * thumbnails of the window, accessed only in the ui thread
+	 */
+	private final TIntObjectHashMap<Bitmap> thumbnails = new TIntObjectHashMap<Bitmap>();
+
+	private final TIntHashSet requested = new TIntHashSet();
+
+	private volatile int windowStart;
+
+	private volatile int windowEnd;
+
+	/**
+	 * true when an image has been chosen and it's being decoded
+	 */
+	private boolean choosing;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -66,45 +107,93 @@ public class ChooseIconFromPackActivity extends ActivityWithDialog {
 		mGrid.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 
 			public void onItemClick(AdapterView<?> arg0, View arg1, int pos, long arg3) {
-				Intent res = new Intent();
-				res.putExtra("image", SelectAppDialog.convertToByteArray(((BitmapDrawable) mIcons[pos]).getBitmap()));
-				setResult(RESULT_OK, res);
-				finish();
+				if (!choosing) {
+					choosing = true;
+					chooseImage(images.get(pos));
+				}
+			}
+		});
+		mGrid.setOnScrollListener(new OnScrollListener() {
+			public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+				if (images != null) {
+					moveWindow(firstVisibleItem, visibleItemCount);
+				}
+			}
+
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+		});
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		// the thumbnails still queued are skipped, the zip is closed by the
+		// decoder thread after the read in progress
+		windowStart = 0;
+		windowEnd = 0;
+		decoder.execute(new Runnable() {
+			public void run() {
+				if (zipFile != null) {
+					try {
+						zipFile.close();
+					} catch (IOException e) {
+					}
+				}
 			}
 		});
+		decoder.shutdown();
+		for (TIntObjectIterator<Bitmap> it = thumbnails.iterator(); it.hasNext();) {
+			it.advance();
+			it.value().recycle();
+		}
+		thumbnails.clear();
 	}
 
-	private Drawable[] mIcons;
+	/**
+	 * Decodes the full image in the decoder thread (the thumbnails still
+	 * queued are skipped) and returns it as result of the activity
+	 */
+	private void chooseImage(final ZipEntry entry) {
+		windowStart = 0;
+		windowEnd = 0;
+		requested.clear();
+		decoder.execute(new Runnable() {
+			public void run() {
+				Bitmap bitmap = loadBitmap(zipFile, entry);
+				final byte[] image = bitmap != null ? SelectAppDialog.convertToByteArray(ChooseIconFromPackActivity.this, bitmap) : null;
+				handler.post(new Runnable() {
+					public void run() {
+						if (image == null) {
+							choosing = false;
+							moveWindow(mGrid.getFirstVisiblePosition(), mGrid.getChildCount());
+						} else if (!isFinishing()) {
+							Intent res = new Intent();
+							res.putExtra("image", image);
+							setResult(RESULT_OK, res);
+							finish();
+						}
+					}
+				});
+			}
+		});
+	}
 
 	private void loadIcons() {
-		createProgressDialog(1);
+		createProgressDialog();
 		new Thread() {
 			@Override
 			public void run() {
-				List<Drawable> l = new ArrayList<Drawable>();
-				ZipFile z = null;
 				try {
-					z = new ZipFile(apkName);
-					ArrayList<ZipEntry> images = filterImages(z);
-					handler.sendEmptyMessage(images.size());
-					for (ZipEntry entry : images) {
-						Bitmap bitmap = loadBitmap(z, entry);
-						if (bitmap != null) {
-							l.add(new BitmapDrawable(bitmap));
-						}
-						handler.sendEmptyMessage(-1);
-					}
+					ZipFile z = new ZipFile(apkName);
+					images = filterImages(z);
+					zipFile = z;
 				} catch (ZipException e1) {
 				} catch (IOException e1) {
-				} finally {
-					if (z != null) {
-						try {
-							z.close();
-						} catch (IOException e) {
-						}
-					}
 				}
-				mIcons = l.toArray(new Drawable[l.size()]);
+				if (images == null) {
+					images = new ArrayList<ZipEntry>();
+				}
 				handler.sendEmptyMessage(-3);
 			}
 		}.start();
@@ -118,78 +207,159 @@ public class ChooseIconFromPackActivity extends ActivityWithDialog {
 			if (msg.what == -3) {
 				pd.hide();
 				mGrid.setAdapter(new IconsAdapter());
-			} else if (msg.what == -1) {
-				pd.incrementProgressBy(1);
-			} else {
-				pd.setMax(msg.what);
 			}
 		}
 	};
 
-	private void createProgressDialog(int size) {
+	private void createProgressDialog() {
 		pd = new ProgressDialog(this);
 		pd.setTitle(getText(R.string.loading_icons));
 		pd.setMessage(getText(R.string.please_wait_loading));
-		pd.setIndeterminate(false);
+		pd.setIndeterminate(true);
 		pd.setCancelable(false);
-		pd.setMax(size);
-		pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
 		pd.show();
 	}
 
-	private Bitmap loadBitmap(ZipFile z, ZipEntry entry) {
-		BufferedInputStream is = null;
-		try {
-			is = new BufferedInputStream(z.getInputStream(entry));
-			ArrayList<byte[]> bytes = new ArrayList<byte[]>();
-			int tot = readBytes(is, bytes);
-			if (tot > 0) {
-				byte[] imageBytes = createByteArray(bytes, tot);
-				return BitmapFactory.decodeByteArray(imageBytes, 0, tot);
+	/**
+	 * Recycles the thumbnails out of the new window and requests the missing
+	 * ones, the visible cells first
+	 */
+	private void moveWindow(int first, int count) {
+		int start = Math.max(0, first - PREFETCH);
+		int end = Math.min(images.size(), first + count + PREFETCH);
+		if (start == windowStart && end == windowEnd) {
+			return;
+		}
+		windowStart = start;
+		windowEnd = end;
+		for (TIntObjectIterator<Bitmap> it = thumbnails.iterator(); it.hasNext();) {
+			it.advance();
+			if (it.key() < start || it.key() >= end) {
+				it.value().recycle();
+				it.remove();
 			}
-		} catch (Throwable e) {
-			e.printStackTrace();
-		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) {
+		}
+		for (int pos : requested.toArray()) {
+			if (pos < start || pos >= end) {
+				requested.remove(pos);
+			}
+		}
+		for (int pos = first; pos < end; pos++) {
+			requestThumbnail(pos);
+		}
+		for (int pos = first - 1; pos >= start; pos--) {
+			requestThumbnail(pos);
+		}
+	}
+
+	private void requestThumbnail(final int pos) {
+		if (pos < windowStart || pos >= windowEnd || thumbnails.containsKey(pos) || !requested.add(pos)) {
+			return;
+		}
+		decoder.execute(new Runnable() {
+			public void run() {
+				if (pos < windowStart || pos >= windowEnd) {
+					return;
+				}
+				final Bitmap b = loadThumbnail(zipFile, images.get(pos));
+				if (b != null) {
+					handler.post(new Runnable() {
+						public void run() {
+							showThumbnail(pos, b);
+						}
+					});
 				}
 			}
+		});
+	}
+
+	private void showThumbnail(int pos, Bitmap b) {
+		requested.remove(pos);
+		if (pos < windowStart || pos >= windowEnd || thumbnails.containsKey(pos) || isFinishing()) {
+			b.recycle();
+			return;
+		}
+		thumbnails.put(pos, b);
+		View child = mGrid.getChildAt(pos - mGrid.getFirstVisiblePosition());
+		if (child != null && child.getTag() != null && ((Integer) child.getTag()) == pos) {
+			((ImageView) child).setImageBitmap(b);
 		}
-		return null;
 	}
 
-	public static boolean isAssetImage(String name) {
-		name = name.toLowerCase();
-		return name.startsWith("assets") && (name.endsWith(".png") || name.endsWith(".jpg"));
+	private Bitmap loadThumbnail(ZipFile z, ZipEntry entry) {
+		if (!thumbnailReader.read(z, entry)) {
+			return null;
+		}
+		byte[] imageBytes = thumbnailReader.buffer;
+		int length = thumbnailReader.length;
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(imageBytes, 0, length, options);
+		int sampleSize = 1;
+		while (options.outWidth / (sampleSize * 2) >= CELL_SIZE && options.outHeight / (sampleSize * 2) >= CELL_SIZE) {
+			sampleSize *= 2;
+		}
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeByteArray(imageBytes, 0, length, options);
 	}
 
-	private byte[] createByteArray(ArrayList<byte[]> bytes, int tot) {
-		byte[] imageBytes;
-		if (tot > BUFFER_SIZE) {
-			imageBytes = new byte[tot];
-			int i = 0;
-			for (byte[] bs : bytes) {
-				int start = BUFFER_SIZE * (i++);
-				System.arraycopy(bs, 0, imageBytes, start, Math.min(tot - start, BUFFER_SIZE));
-			}
-		} else {
-			imageBytes = bytes.get(0);
+	private Bitmap loadBitmap(ZipFile z, ZipEntry entry) {
+		EntryReader reader = new EntryReader();
+		if (!reader.read(z, entry)) {
+			return null;
 		}
-		return imageBytes;
+		return BitmapFactory.decodeByteArray(reader.buffer, 0, reader.length);
 	}
 
-	private int readBytes(BufferedInputStream is, ArrayList<byte[]> bytes) throws IOException {
-		byte[] tmp = new byte[BUFFER_SIZE];
-		int tot = 0;
-		int readedBytes = 0;
-		while ((readedBytes = is.read(tmp, 0, BUFFER_SIZE)) != -1) {
-			bytes.add(tmp);
-			tot += readedBytes;
-			tmp = new byte[BUFFER_SIZE];
+	/**
+	 * Reads the zip entries in a buffer reused for all the entries, the buffer
+	 * is allocated with the uncompressed size of the entry (when known) and
+	 * grows only if an entry is bigger than the previous ones
+	 */
+	private static class EntryReader {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length;
+
+		boolean read(ZipFile z, ZipEntry entry) {
+			length = 0;
+			InputStream is = null;
+			try {
+				is = z.getInputStream(entry);
+				long size = entry.getSize();
+				if (size > buffer.length) {
+					buffer = new byte[(int) size];
+				}
+				int readedBytes;
+				while ((readedBytes = is.read(buffer, length, buffer.length - length)) != -1) {
+					length += readedBytes;
+					if (length == buffer.length) {
+						if (size >= 0 && length >= size) {
+							break;
+						}
+						byte[] tmp = new byte[buffer.length * 2];
+						System.arraycopy(buffer, 0, tmp, 0, length);
+						buffer = tmp;
+					}
+				}
+				return length > 0;
+			} catch (Throwable e) {
+				e.printStackTrace();
+			} finally {
+				if (is != null) {
+					try {
+						is.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+			return false;
 		}
-		return tot;
+	}
+
+	public static boolean isAssetImage(String name) {
+		name = name.toLowerCase();
+		return name.startsWith("assets") && (name.endsWith(".png") || name.endsWith(".jpg"));
 	}
 
 	private ArrayList<ZipEntry> filterImages(ZipFile z) {
@@ -211,21 +381,26 @@ public class ChooseIconFromPackActivity extends ActivityWithDialog {
 			if (convertView == null) {
 				i = new ImageView(ChooseIconFromPackActivity.this);
 				i.setScaleType(ImageView.ScaleType.FIT_CENTER);
-				i.setLayoutParams(new GridView.LayoutParams(50, 50));
+				i.setLayoutParams(new GridView.LayoutParams(CELL_SIZE, CELL_SIZE));
 			} else {
 				i = (ImageView) convertView;
 			}
 
-			i.setImageDrawable(mIcons[position]);
+			i.setTag(position);
+			Bitmap b = thumbnails.get(position);
+			i.setImageBitmap(b);
+			if (b == null) {
+				requestThumbnail(position);
+			}
 			return i;
 		}
 
 		public final int getCount() {
-			return mIcons.length;
+			return images.size();
 		}
 
 		public final Object getItem(int position) {
-			return mIcons[position];
+			return images.get(position);
 		}
 
 		public final long getItemId(int position) {
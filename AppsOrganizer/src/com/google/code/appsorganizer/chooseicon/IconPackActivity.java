@@ -1,14 +1,24 @@
 package com.google.code.appsorganizer.chooseicon;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.content.DialogInterface.OnCancelListener;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.os.Bundle;
@@ -19,8 +29,12 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 
 import com.google.code.appsorganizer.R;
+import com.google.code.appsorganizer.db.DatabaseHelper;
+import com.google.code.appsorganizer.db.IconPackDao;
 import com.google.code.appsorganizer.dialogs.ListActivityWithDialog;
+import com.google.code.appsorganizer.model.IconPack;
 import com.google.code.appsorganizer.utils.ArrayAdapterSmallRow;
+import com.google.code.appsorganizer.utils.ProgressReporter;
 
 public class IconPackActivity extends ListActivityWithDialog {
 
@@ -38,6 +52,12 @@ public class IconPackActivity extends ListActivityWithDialog {
 		});
 	}
 
+	@Override
+	protected void onDestroy() {
+		cancelled = true;
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
@@ -49,8 +69,12 @@ public class IconPackActivity extends ListActivityWithDialog {
 		}
 	}
 
+	private static final int SCAN_THREADS = 4;
+
 	private ProgressDialog pd;
 
+	private volatile boolean cancelled;
+
 	private final List<AppBinding> iconPacks = new ArrayList<AppBinding>();
 
 	private final Handler handler = new Handler() {
@@ -60,7 +84,7 @@ public class IconPackActivity extends ListActivityWithDialog {
 				pd.hide();
 				setListAdapter(new ArrayAdapterSmallRow<AppBinding>(IconPackActivity.this, android.R.layout.simple_list_item_1, iconPacks));
 			} else {
-				pd.incrementProgressBy(1);
+				pd.setProgress(msg.arg2);
 			}
 		}
 	};
@@ -72,46 +96,119 @@ public class IconPackActivity extends ListActivityWithDialog {
 			@Override
 			public void run() {
 				String abcPackageName = getPackageName();
-				for (PackageInfo p : installedPackages) {
-					String packageName = p.packageName;
-					if (!packageName.startsWith("com.android") && !abcPackageName.equals(packageName) && p.applicationInfo.enabled) {
-						String dir = p.applicationInfo.publicSourceDir;
-						ZipFile z = null;
-						try {
-							z = new ZipFile(dir);
-							Enumeration<? extends ZipEntry> entries = z.entries();
-							while (entries.hasMoreElements()) {
-								ZipEntry zipEntry = entries.nextElement();
-								if (ChooseIconFromPackActivity.isAssetImage(zipEntry.getName())) {
-									iconPacks.add(new AppBinding(dir, p.applicationInfo.loadLabel(getPackageManager())));
-									break;
-								}
-							}
-						} catch (Throwable e) {
-						} finally {
-							if (z != null) {
-								try {
-									z.close();
-								} catch (IOException e) {
-								}
+				ProgressReporter progress = new ProgressReporter(handler, -1);
+				IconPackDao iconPackDao = DatabaseHelper.initOrSingleton(IconPackActivity.this).iconPackDao;
+				HashMap<String, IconPack> index = iconPackDao.getIconPackMap();
+				ArrayList<IconPack> scanned = new ArrayList<IconPack>();
+				HashMap<String, PackageInfo> pending = new HashMap<String, PackageInfo>();
+				ExecutorService pool = Executors.newFixedThreadPool(SCAN_THREADS);
+				CompletionService<IconPack> completion = new ExecutorCompletionService<IconPack>(pool);
+				try {
+					for (PackageInfo p : installedPackages) {
+						String packageName = p.packageName;
+						if (!packageName.startsWith("com.android") && !abcPackageName.equals(packageName) && p.applicationInfo.enabled) {
+							String dir = p.applicationInfo.publicSourceDir;
+							long lastModified = new File(dir).lastModified();
+							IconPack iconPack = index.remove(dir);
+							if (iconPack == null || iconPack.lastModified != lastModified) {
+								pending.put(dir, p);
+								completion.submit(new ApkScanner(dir, lastModified));
+								continue;
 							}
+							addIconPack(p, iconPack);
 						}
+						progress.increment(null);
 					}
-					handler.sendEmptyMessage(-1);
+					for (int i = pending.size(); i > 0 && !cancelled; i--) {
+						IconPack iconPack = completion.take().get();
+						if (iconPack.images >= 0) {
+							scanned.add(iconPack);
+						}
+						addIconPack(pending.get(iconPack.apk), iconPack);
+						progress.increment(null);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					// ApkScanner doesn't throw exceptions
+				} finally {
+					pool.shutdownNow();
+				}
+				// the apks scanned before a cancel are saved too
+				iconPackDao.update(scanned, index.keySet());
+				if (!cancelled) {
+					progress.flush();
+					Collections.sort(iconPacks);
+					handler.sendEmptyMessage(-3);
 				}
-				Collections.sort(iconPacks);
-				handler.sendEmptyMessage(-3);
 			}
 		};
 		t.start();
 	}
 
+	private void addIconPack(PackageInfo p, IconPack iconPack) {
+		if (iconPack.images > 0) {
+			iconPacks.add(new AppBinding(iconPack.apk, p.applicationInfo.loadLabel(getPackageManager()), iconPack.images));
+		}
+	}
+
+	/**
+	 * Counts the images of an apk, the zip reads are io bound so more apks
+	 * are scanned at the same time
+	 */
+	private class ApkScanner implements Callable<IconPack> {
+		private final String apk;
+		private final long lastModified;
+
+		ApkScanner(String apk, long lastModified) {
+			this.apk = apk;
+			this.lastModified = lastModified;
+		}
+
+		public IconPack call() {
+			return new IconPack(apk, lastModified, cancelled ? -1 : countAssetImages(apk));
+		}
+	}
+
+	/**
+	 * Returns -1 if the apk can't be read (it will be scanned again)
+	 */
+	private static int countAssetImages(String apk) {
+		int images = 0;
+		ZipFile z = null;
+		try {
+			z = new ZipFile(apk);
+			Enumeration<? extends ZipEntry> entries = z.entries();
+			while (entries.hasMoreElements()) {
+				if (ChooseIconFromPackActivity.isAssetImage(entries.nextElement().getName())) {
+					images++;
+				}
+			}
+		} catch (Throwable e) {
+			images = -1;
+		} finally {
+			if (z != null) {
+				try {
+					z.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return images;
+	}
+
 	private void createProgressDialog(int size) {
 		pd = new ProgressDialog(this);
 		pd.setTitle(getText(R.string.looking_for_icons));
 		pd.setMessage(getText(R.string.please_wait_loading));
 		pd.setIndeterminate(false);
-		pd.setCancelable(false);
+		pd.setCancelable(true);
+		pd.setOnCancelListener(new OnCancelListener() {
+			public void onCancel(DialogInterface dialog) {
+				cancelled = true;
+				finish();
+			}
+		});
 		pd.setMax(size);
 		pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
 		pd.show();
@@ -120,16 +217,18 @@ public class IconPackActivity extends ListActivityWithDialog {
 	private static class AppBinding implements Comparable<AppBinding> {
 		String apkName;
 		CharSequence name;
+		int images;
 
-		public AppBinding(String apkName, CharSequence name) {
+		public AppBinding(String apkName, CharSequence name, int images) {
 			super();
 			this.apkName = apkName;
 			this.name = name;
+			this.images = images;
 		}
 
 		@Override
 		public String toString() {
-			return name.toString();
+			return name + " (" + images + ")";
 		}
 
 		public int compareTo(AppBinding another) {
@@ -3,7 +3,6 @@
  */
 package com.google.code.appsorganizer.chooseicon;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -11,12 +10,12 @@ import java.net.URI;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
-import android.graphics.Bitmap.CompressFormat;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore.Images.Media;
@@ -29,6 +28,8 @@ import com.google.code.appsorganizer.dialogs.OnOkClickListener;
 import com.google.code.appsorganizer.dialogs.SimpleDialog;
 import com.google.code.appsorganizer.dialogs.SingleSelectDialog;
 import com.google.code.appsorganizer.model.Label;
+import com.google.code.appsorganizer.utils.IconCache;
+import com.google.code.appsorganizer.utils.IconCodec;
 
 public final class SelectAppDialog extends SingleSelectDialog {
 
@@ -161,11 +162,9 @@ public final class SelectAppDialog extends SingleSelectDialog {
 						selectImageDialog.showDialog();
 					} else if (path.startsWith("file://")) {
 						File file = new File(URI.create(path));
-						Bitmap bitmap = getScaledImage(file);
-						ByteArrayOutputStream os = new ByteArrayOutputStream();
-						bitmap.compress(CompressFormat.PNG, 100, os);
+						Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
 
-						dbHelper.labelDao.updateIcon(itemId, null, os.toByteArray());
+						dbHelper.labelDao.updateIcon(itemId, null, convertToByteArray(owner, bitmap));
 						ret = true;
 					}
 				}
@@ -185,26 +184,23 @@ public final class SelectAppDialog extends SingleSelectDialog {
 
 	private byte[] convertToByteArray(Uri uri) throws FileNotFoundException, IOException {
 		Bitmap bm = Media.getBitmap(owner.getContentResolver(), uri);
-		return convertToByteArray(bm);
+		return convertToByteArray(owner, bm);
 	}
 
-	public static byte[] convertToByteArray(Bitmap bm) {
-		Bitmap bitmap = getScaledImage(bm);
-		ByteArrayOutputStream os = new ByteArrayOutputStream();
-		bitmap.compress(CompressFormat.PNG, 100, os);
-		return os.toByteArray();
+	/**
+	 * Encodes the image scaled to the icon size with the codec chosen in the
+	 * preferences
+	 */
+	public static byte[] convertToByteArray(Context context, Bitmap bm) {
+		Bitmap bitmap = getScaledImage(bm, IconCache.getIconSize(context));
+		return IconCodec.getInstance(context).encode(bitmap);
 	}
 
-	private static Bitmap getScaledImage(File file) {
-		return getScaledImage(BitmapFactory.decodeFile(file.getAbsolutePath()));
-	}
-
-	private static Bitmap getScaledImage(Bitmap bitmapOrg) {
+	private static Bitmap getScaledImage(Bitmap bitmapOrg, int size) {
 		int width = bitmapOrg.getWidth();
 		int height = bitmapOrg.getHeight();
-		// TODO impostare la dimensione in base alla risoluzione
-		int newWidth = 72;
-		int newHeight = 72;
+		int newWidth = size;
+		int newHeight = size;
 
 		// calculate the scale - in this case = 0.4f
 		float scaleWidth = ((float) newWidth) / width;
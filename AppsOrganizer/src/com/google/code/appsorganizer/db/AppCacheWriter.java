@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.db;
+
+import java.util.HashMap;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.code.appsorganizer.model.AppCache;
+import com.google.code.appsorganizer.model.PackageFingerprint;
+
+/**
+ * Write path used by the apps reload: compiled statements executed inside a
+ * transaction that is committed every batchSize rows
+ */
+public class AppCacheWriter {
+
+	/**
+	 * every row is committed on its own (no explicit transaction)
+	 */
+	public static final int AUTOCOMMIT = 0;
+
+	/**
+	 * the whole reload is committed once at the end
+	 */
+	public static final int SINGLE_TRANSACTION = Integer.MAX_VALUE;
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * temporary table with the ids of the apps found during a sweep
+	 */
+	private static final String SEEN_TABLE_NAME = "seen_apps";
+
+	private final SQLiteDatabase db;
+
+	private final int size;
+
+	private SQLiteStatement insertStatement;
+
+	private SQLiteStatement updateStatement;
+
+	private SQLiteStatement updateNoImageStatement;
+
+	private SQLiteStatement disableStatement;
+
+	private SQLiteStatement fingerprintStatement;
+
+	private SQLiteStatement iconIdStatement;
+
+	private SQLiteStatement iconInsertStatement;
+
+	private SQLiteStatement seenStatement;
+
+	private SQLiteStatement sweepStatement;
+
+	private SQLiteStatement sweepPackageStatement;
+
+	private SQLiteStatement linkLabelsStatement;
+
+	private boolean inTransaction;
+
+	private boolean sweeping;
+
+	/**
+	 * ids of the icons stored or found by this writer
+	 */
+	private final HashMap<String, Long> iconIds = new HashMap<String, Long>();
+
+	private int pending;
+
+	private int written;
+
+	AppCacheWriter(SQLiteDatabase db, int size) {
+		this.db = db;
+		this.size = size;
+	}
+
+	public void begin() {
+		if (size > AUTOCOMMIT) {
+			db.beginTransaction();
+			inTransaction = true;
+			pending = 0;
+		}
+	}
+
+	public long insert(AppCache obj) {
+		if (insertStatement == null) {
+			insertStatement = db.compileStatement("insert into " + AppCacheDao.TABLE_NAME + " (" + AppCacheDao.NAME_COL_NAME + ","
+					+ AppCacheDao.LABEL_COL_NAME + "," + AppCacheDao.STARRED_COL_NAME + "," + AppCacheDao.PACKAGE_NAME_COL_NAME + ","
+					+ AppCacheDao.ICON_ID_COL_NAME + "," + AppCacheDao.DISABLED_COL_NAME + ") values (?,?,?,?,?,?)");
+		}
+		if (obj.image != null) {
+			obj.iconId = storeIcon(obj.image);
+		}
+		SQLiteStatement s = insertStatement;
+		s.bindString(1, obj.name);
+		s.bindString(2, obj.label);
+		s.bindLong(3, obj.starred ? 1 : 0);
+		bindString(s, 4, obj.packageName);
+		bindIconId(s, 5, obj.iconId);
+		s.bindLong(6, obj.disabled ? 1 : 0);
+		long id = s.executeInsert();
+		obj.setId(id);
+		linkLabels(id, obj.packageName, obj.name);
+		markSeen(id);
+		rowWritten();
+		return id;
+	}
+
+	/**
+	 * Links to the new app the labels saved before it was inserted
+	 */
+	private void linkLabels(long id, String packageName, String name) {
+		if (packageName == null) {
+			return;
+		}
+		if (linkLabelsStatement == null) {
+			linkLabelsStatement = db.compileStatement("update " + AppLabelDao.TABLE_NAME + " set " + AppLabelDao.APP_ID_COL_NAME
+					+ "=? where " + AppLabelDao.APP_ID_COL_NAME + " is null and " + AppLabelDao.PACKAGE_NAME_COL_NAME + "=? and "
+					+ AppLabelDao.APP_COL_NAME + "=?");
+		}
+		SQLiteStatement s = linkLabelsStatement;
+		s.bindLong(1, id);
+		s.bindString(2, packageName);
+		s.bindString(3, name);
+		s.execute();
+	}
+
+	public void updateLabel(String p, String n, String l, byte[] img, boolean disabled) {
+		if (updateStatement == null) {
+			updateStatement = db.compileStatement("update " + AppCacheDao.TABLE_NAME + " set " + AppCacheDao.LABEL_COL_NAME + "=?,"
+					+ AppCacheDao.ICON_ID_COL_NAME + "=?," + AppCacheDao.DISABLED_COL_NAME + "=? where " + AppCacheDao.PACKAGE_NAME_COL_NAME
+					+ "=? and " + AppCacheDao.NAME_COL_NAME + "=?");
+		}
+		long iconId = img != null ? storeIcon(img) : 0;
+		SQLiteStatement s = updateStatement;
+		s.bindString(1, l);
+		bindIconId(s, 2, iconId);
+		s.bindLong(3, disabled ? 1 : 0);
+		s.bindString(4, p);
+		s.bindString(5, n);
+		s.execute();
+		rowWritten();
+	}
+
+	public void updateLabel(String p, String n, String l, boolean disabled) {
+		if (updateNoImageStatement == null) {
+			updateNoImageStatement = db.compileStatement("update " + AppCacheDao.TABLE_NAME + " set " + AppCacheDao.LABEL_COL_NAME + "=?,"
+					+ AppCacheDao.DISABLED_COL_NAME + "=? where " + AppCacheDao.PACKAGE_NAME_COL_NAME + "=? and " + AppCacheDao.NAME_COL_NAME
+					+ "=?");
+		}
+		SQLiteStatement s = updateNoImageStatement;
+		s.bindString(1, l);
+		s.bindLong(2, disabled ? 1 : 0);
+		s.bindString(3, p);
+		s.bindString(4, n);
+		s.execute();
+		rowWritten();
+	}
+
+	/**
+	 * Returns the id of the icon with the same content of image, inserting
+	 * it if not already stored
+	 */
+	public long storeIcon(byte[] image) {
+		String hash = IconDao.hash(image);
+		Long id = iconIds.get(hash);
+		if (id == null) {
+			if (iconIdStatement == null) {
+				iconIdStatement = db.compileStatement("select " + IconDao.ID_COL_NAME + " from " + IconDao.TABLE_NAME + " where "
+						+ IconDao.HASH_COL_NAME + "=?");
+			}
+			iconIdStatement.bindString(1, hash);
+			try {
+				id = iconIdStatement.simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				if (iconInsertStatement == null) {
+					iconInsertStatement = db.compileStatement("insert into " + IconDao.TABLE_NAME + " (" + IconDao.HASH_COL_NAME + ","
+							+ IconDao.IMAGE_COL_NAME + ") values (?,?)");
+				}
+				iconInsertStatement.bindString(1, hash);
+				iconInsertStatement.bindBlob(2, image);
+				id = iconInsertStatement.executeInsert();
+				rowWritten();
+			}
+			iconIds.put(hash, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Deletes the icons no longer referenced by an app
+	 */
+	public void deleteUnusedIcons() {
+		db.delete(IconDao.TABLE_NAME, IconDao.getUnusedFilter(), null);
+		iconIds.clear();
+		rowWritten();
+	}
+
+	public void disable(long id) {
+		if (disableStatement == null) {
+			disableStatement = db.compileStatement("update " + AppCacheDao.TABLE_NAME + " set " + AppCacheDao.DISABLED_COL_NAME + "=1 where "
+					+ AppCacheDao.ID_COL_NAME + "=?");
+		}
+		disableStatement.bindLong(1, id);
+		disableStatement.execute();
+		rowWritten();
+	}
+
+	public void saveFingerprint(PackageFingerprint f) {
+		if (fingerprintStatement == null) {
+			fingerprintStatement = db.compileStatement("insert or replace into " + PackageFingerprintDao.TABLE_NAME + " ("
+					+ PackageFingerprintDao.PACKAGE_NAME_COL_NAME + "," + PackageFingerprintDao.VERSION_CODE_COL_NAME + ","
+					+ PackageFingerprintDao.LAST_UPDATE_COL_NAME + "," + PackageFingerprintDao.SOURCE_DIR_COL_NAME + ") values (?,?,?,?)");
+		}
+		SQLiteStatement s = fingerprintStatement;
+		s.bindString(1, f.packageName);
+		s.bindLong(2, f.versionCode);
+		s.bindLong(3, f.lastUpdateTime);
+		bindString(s, 4, f.sourceDir);
+		s.execute();
+		rowWritten();
+	}
+
+	public void deleteFingerprint(String packageName) {
+		db.delete(PackageFingerprintDao.TABLE_NAME, PackageFingerprintDao.PACKAGE_NAME_COL_NAME + "=?", new String[] { packageName });
+		rowWritten();
+	}
+
+	/**
+	 * Starts collecting the ids of the apps inserted or passed to markSeen,
+	 * apps not collected are disabled by sweep
+	 */
+	public void beginSweep() {
+		db.execSQL("create temp table if not exists " + SEEN_TABLE_NAME + " (" + AppCacheDao.ID_COL_NAME + " integer primary key)");
+		db.execSQL("delete from " + SEEN_TABLE_NAME);
+		sweeping = true;
+	}
+
+	public void markSeen(long id) {
+		if (sweeping) {
+			if (seenStatement == null) {
+				seenStatement = db.compileStatement("insert or ignore into " + SEEN_TABLE_NAME + " (" + AppCacheDao.ID_COL_NAME + ") values (?)");
+			}
+			seenStatement.bindLong(1, id);
+			seenStatement.execute();
+		}
+	}
+
+	/**
+	 * Disables all the enabled apps not seen since beginSweep
+	 */
+	public void sweep() {
+		if (sweepStatement == null) {
+			sweepStatement = db.compileStatement(getSweepSql(null));
+		}
+		sweepStatement.execute();
+		endSweep();
+	}
+
+	/**
+	 * Disables the enabled apps of a package not seen since beginSweep
+	 */
+	public void sweep(String packageName) {
+		if (sweepPackageStatement == null) {
+			sweepPackageStatement = db.compileStatement(getSweepSql(AppCacheDao.PACKAGE_NAME_COL_NAME + "=?"));
+		}
+		sweepPackageStatement.bindString(1, packageName);
+		sweepPackageStatement.execute();
+		endSweep();
+	}
+
+	private void endSweep() {
+		sweeping = false;
+		db.execSQL("delete from " + SEEN_TABLE_NAME);
+		rowWritten();
+	}
+
+	private static String getSweepSql(String where) {
+		return "update " + AppCacheDao.TABLE_NAME + " set " + AppCacheDao.DISABLED_COL_NAME + "=1 where " + AppCacheDao.DISABLED_COL_NAME
+				+ "=0 and " + AppCacheDao.ID_COL_NAME + " not in (select " + AppCacheDao.ID_COL_NAME + " from " + SEEN_TABLE_NAME + ")"
+				+ (where != null ? " and " + where : "");
+	}
+
+	private void rowWritten() {
+		written++;
+		if (inTransaction && ++pending >= size) {
+			db.setTransactionSuccessful();
+			db.endTransaction();
+			db.beginTransaction();
+			pending = 0;
+		}
+	}
+
+	public void commit() {
+		if (inTransaction) {
+			db.setTransactionSuccessful();
+			db.endTransaction();
+			inTransaction = false;
+		}
+	}
+
+	/**
+	 * Rolls back rows not yet committed and releases the compiled statements
+	 */
+	public void close() {
+		if (inTransaction) {
+			db.endTransaction();
+			inTransaction = false;
+		}
+		closeStatement(insertStatement);
+		closeStatement(updateStatement);
+		closeStatement(updateNoImageStatement);
+		closeStatement(disableStatement);
+		closeStatement(fingerprintStatement);
+		closeStatement(iconIdStatement);
+		closeStatement(iconInsertStatement);
+		closeStatement(seenStatement);
+		closeStatement(sweepStatement);
+		closeStatement(sweepPackageStatement);
+		closeStatement(linkLabelsStatement);
+		insertStatement = null;
+		updateStatement = null;
+		updateNoImageStatement = null;
+		disableStatement = null;
+		fingerprintStatement = null;
+		iconIdStatement = null;
+		iconInsertStatement = null;
+		seenStatement = null;
+		sweepStatement = null;
+		sweepPackageStatement = null;
+		linkLabelsStatement = null;
+		sweeping = false;
+	}
+
+	public int getWrittenRows() {
+		return written;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private static void closeStatement(SQLiteStatement s) {
+		if (s != null) {
+			s.close();
+		}
+	}
+
+	private static void bindString(SQLiteStatement s, int index, String value) {
+		if (value == null) {
+			s.bindNull(index);
+		} else {
+			s.bindString(index, value);
+		}
+	}
+
+	private static void bindIconId(SQLiteStatement s, int index, long iconId) {
+		if (iconId == 0) {
+			s.bindNull(index);
+		} else {
+			s.bindLong(index, iconId);
+		}
+	}
+}
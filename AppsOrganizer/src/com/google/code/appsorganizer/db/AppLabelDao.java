@@ -18,12 +18,23 @@
  */
 package com.google.code.appsorganizer.db;
 
+import java.util.Collection;
+
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 
 import com.google.code.appsorganizer.maps.AppCacheMap;
 import com.google.code.appsorganizer.model.AppLabel;
 
+/**
+ * Labels of the apps: the apps are referenced by app_id, package and app are
+ * kept as the key used by import/export and to link the rows saved before the
+ * app is in the apps table (app_id is null until then)
+ * 
+ * @author fabio
+ * 
+ */
 public class AppLabelDao extends ObjectWithIdDao<AppLabel> {
 
 	public static final String APP_COL_NAME = "app";
@@ -32,41 +43,83 @@ public class AppLabelDao extends ObjectWithIdDao<AppLabel> {
 
 	public static final String PACKAGE_NAME_COL_NAME = "package";
 
-	public static final String TABLE_NAME = "apps_labels";
+	public static final String APP_ID_COL_NAME = "app_id";
 
-	private static final String[] COLS_STRING = new String[] { ID_COL_NAME, APP_COL_NAME, LABEL_ID_COL_NAME, PACKAGE_NAME_COL_NAME };
+	public static final String TABLE_NAME = "apps_labels";
 
 	public static final DbColumns APP = new DbColumns(APP_COL_NAME, "text not null");
 	public static final DbColumns LABEL_ID = new DbColumns(LABEL_ID_COL_NAME, "integer not null");
 	public static final DbColumns PACKAGE = new DbColumns(PACKAGE_NAME_COL_NAME, "text null");
+	public static final DbColumns APP_ID = new DbColumns(APP_ID_COL_NAME, "integer null references " + AppCacheDao.TABLE_NAME + "("
+			+ ID_COL_NAME + ")");
+
+	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, APP, LABEL_ID, PACKAGE, APP_ID };
+
+	/**
+	 * id of the app with the given package and name, the enabled one if there
+	 * are duplicates
+	 */
+	private static final String APP_ID_QUERY = "select a." + AppCacheDao.ID_COL_NAME + " from " + AppCacheDao.TABLE_NAME + " a where a."
+			+ AppCacheDao.PACKAGE_NAME_COL_NAME + " = " + TABLE_NAME + "." + PACKAGE_NAME_COL_NAME + " and a." + AppCacheDao.NAME_COL_NAME
+			+ " = " + TABLE_NAME + "." + APP_COL_NAME + " order by a." + AppCacheDao.DISABLED_COL_NAME + " limit 1";
+
+	private static final String INSERT = "insert or ignore into " + TABLE_NAME + " (" + APP_COL_NAME + "," + LABEL_ID_COL_NAME + ","
+			+ PACKAGE_NAME_COL_NAME + "," + APP_ID_COL_NAME + ") values (?,?,?,(select " + AppCacheDao.ID_COL_NAME + " from "
+			+ AppCacheDao.TABLE_NAME + " where " + AppCacheDao.PACKAGE_NAME_COL_NAME + "=? and " + AppCacheDao.NAME_COL_NAME + "=? order by "
+			+ AppCacheDao.DISABLED_COL_NAME + " limit 1))";
 
-	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, APP, LABEL_ID, PACKAGE };
+	private static final String DELETE = "delete from " + TABLE_NAME + " where " + LABEL_ID_COL_NAME + "=? and " + APP_COL_NAME
+			+ "=? and " + PACKAGE_NAME_COL_NAME + "=?";
+
+	private static final String INSERT_APP_ID = "insert or ignore into " + TABLE_NAME + " (" + APP_COL_NAME + "," + LABEL_ID_COL_NAME + ","
+			+ PACKAGE_NAME_COL_NAME + "," + APP_ID_COL_NAME + ") select " + AppCacheDao.NAME_COL_NAME + ",?," + AppCacheDao.PACKAGE_NAME_COL_NAME
+			+ "," + AppCacheDao.ID_COL_NAME + " from " + AppCacheDao.TABLE_NAME + " where " + AppCacheDao.ID_COL_NAME + "=?";
+
+	private static final String DELETE_APP_ID = "delete from " + TABLE_NAME + " where " + LABEL_ID_COL_NAME + "=? and "
+			+ APP_ID_COL_NAME + "=?";
+
+	private static final String DELETE_LABEL = "delete from " + TABLE_NAME + " where " + LABEL_ID_COL_NAME + "=?";
+
+	private static final String DELETE_APP = "delete from " + TABLE_NAME + " where " + APP_COL_NAME + "=? and " + PACKAGE_NAME_COL_NAME
+			+ "=?";
+
+	private static final String DELETE_PACKAGE = "delete from " + TABLE_NAME + " where " + PACKAGE_NAME_COL_NAME + "=?";
 
 	AppLabelDao() {
 		super(TABLE_NAME);
 		columns = DB_COLUMNS;
 	}
 
-	public long merge(String packageName, String app, long labelId) {
-		Cursor c = db.query(TABLE_NAME, new String[] { ID_COL_NAME }, APP_COL_NAME + "=? and " + PACKAGE_NAME_COL_NAME + "=? and "
-				+ LABEL_ID_COL_NAME + "=?", new String[] { app, packageName, Long.toString(labelId) }, null, null, null);
-		try {
-			if (!c.moveToNext()) {
-				return insert(packageName, app, labelId);
-			} else {
-				return -1;
-			}
-		} finally {
-			c.close();
-		}
+	/**
+	 * Adds the label to the app, returns -1 if the app already has the label
+	 * (the row is ignored by the unique index on package, app and id_label)
+	 */
+	public long insert(String packageName, String app, long labelId) {
+		return executeInsertOrIgnore(INSERT, app, labelId, packageName, packageName, app);
 	}
 
-	public long insert(String packageName, String app, long labelId) {
-		ContentValues v = new ContentValues();
-		v.put(APP_COL_NAME, app);
-		v.put(LABEL_ID_COL_NAME, labelId);
-		v.put(PACKAGE_NAME_COL_NAME, packageName);
-		return db.insert(name, null, v);
+	/**
+	 * Sets app_id of the rows not linked to an app (saved before the app or
+	 * linked to a deleted duplicate)
+	 */
+	public void linkApps() {
+		linkApps(db);
+	}
+
+	/**
+	 * Removes the rows with the same package, app and label of an older row,
+	 * called before creating the unique index
+	 */
+	static void deleteDuplicates(SQLiteDatabase db) {
+		db.execSQL("delete from " + TABLE_NAME + " where exists (select 1 from " + TABLE_NAME + " al2 where al2." + PACKAGE_NAME_COL_NAME
+				+ " = " + TABLE_NAME + "." + PACKAGE_NAME_COL_NAME + " and al2." + APP_COL_NAME + " = " + TABLE_NAME + "." + APP_COL_NAME
+				+ " and al2." + LABEL_ID_COL_NAME + " = " + TABLE_NAME + "." + LABEL_ID_COL_NAME + " and al2." + ID_COL_NAME + " < "
+				+ TABLE_NAME + "." + ID_COL_NAME + ")");
+	}
+
+	static void linkApps(SQLiteDatabase db) {
+		db.execSQL("update " + TABLE_NAME + " set " + APP_ID_COL_NAME + " = (" + APP_ID_QUERY + ") where " + APP_ID_COL_NAME + " is null or "
+				+ APP_ID_COL_NAME + " not in (select " + AppCacheDao.ID_COL_NAME + " from " + AppCacheDao.TABLE_NAME + ")");
 	}
 
 	@Override
@@ -76,16 +129,79 @@ public class AppLabelDao extends ObjectWithIdDao<AppLabel> {
 		t.setApp(c.getString(1));
 		t.setLabelId(c.getLong(2));
 		t.setPackageName(c.getString(3));
+		t.setAppId(c.isNull(4) ? null : c.getLong(4));
 		return t;
 	}
 
+	/**
+	 * Adds and removes the apps (ids of the apps table) of a label in a
+	 * single transaction
+	 */
+	public BatchResult updateAppsOfLabel(long labelId, Collection<Long> addedApps, Collection<Long> removedApps) {
+		BatchResult res = new BatchResult();
+		if (addedApps.isEmpty() && removedApps.isEmpty()) {
+			return res;
+		}
+		db.beginTransaction();
+		try {
+			for (Long appId : addedApps) {
+				// no row is inserted if the app doesn't exist or already has
+				// the label
+				res.added += executeUpdateDelete(INSERT_APP_ID, labelId, appId);
+			}
+			for (Long appId : removedApps) {
+				res.removed += executeUpdateDelete(DELETE_APP_ID, labelId, appId);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return res;
+	}
+
+	/**
+	 * Adds and removes the labels of an app in a single transaction
+	 */
+	public BatchResult updateLabelsOfApp(String packageName, String app, Collection<Long> addedLabels, Collection<Long> removedLabels) {
+		BatchResult res = new BatchResult();
+		if (addedLabels.isEmpty() && removedLabels.isEmpty()) {
+			return res;
+		}
+		db.beginTransaction();
+		try {
+			for (Long labelId : addedLabels) {
+				if (executeInsertOrIgnore(INSERT, app, labelId, packageName, packageName, app) != -1) {
+					res.added++;
+				}
+			}
+			for (Long labelId : removedLabels) {
+				res.removed += executeUpdateDelete(DELETE, labelId, app, packageName);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return res;
+	}
+
+	/**
+	 * Rows written by a batch update
+	 */
+	public static class BatchResult {
+		public int added;
+		public int removed;
+
+		public boolean isChanged() {
+			return added > 0 || removed > 0;
+		}
+	}
+
 	public int delete(String packageName, String appName, Long labelId) {
-		return db.delete(name, LABEL_ID_COL_NAME + " = ? and " + APP_COL_NAME + " = ? and " + PACKAGE_NAME_COL_NAME + "=?", new String[] {
-				labelId.toString(), appName, packageName });
+		return executeUpdateDelete(DELETE, labelId, appName, packageName);
 	}
 
-	public int deleteAppsOfLabel(Long labelId) {
-		return db.delete(name, LABEL_ID_COL_NAME + " = ?", new String[] { labelId.toString() });
+	public void deleteAppsOfLabel(Long labelId) {
+		execute(DELETE_LABEL, labelId);
 	}
 
 	@Override
@@ -95,6 +211,7 @@ public class AppLabelDao extends ObjectWithIdDao<AppLabel> {
 		v.put(APP_COL_NAME, obj.getApp());
 		v.put(LABEL_ID_COL_NAME, obj.getLabelId());
 		v.put(PACKAGE_NAME_COL_NAME, obj.getPackageName());
+		v.put(APP_ID_COL_NAME, obj.getAppId());
 		return v;
 	}
 
@@ -102,24 +219,39 @@ public class AppLabelDao extends ObjectWithIdDao<AppLabel> {
 		return getCreateTableScript(TABLE_NAME, DB_COLUMNS);
 	}
 
+	/**
+	 * Covering indexes for the joins starting from an app (labels of an app)
+	 * and from a label (apps of a label), the last one is the unique key of
+	 * the table and is used by the operations by package and name
+	 */
+	public static String[] getCreateIndexScripts() {
+		return new String[] { getCreateIndexScript("apps_labels_app", TABLE_NAME, APP_ID, LABEL_ID),
+				getCreateIndexScript("apps_labels_label", TABLE_NAME, LABEL_ID, APP_ID),
+				getCreateUniqueIndexScript("apps_labels_package", TABLE_NAME, PACKAGE, APP, LABEL_ID) };
+	}
+
+	public static String[] getDropIndexScripts() {
+		return new String[] { "drop index if exists apps_labels_app;", "drop index if exists apps_labels_label;",
+				"drop index if exists apps_labels_package;" };
+	}
+
 	public void removeUninstalledApps(boolean[] installedApps, String[] appNames) {
 		for (int i = 0; i < installedApps.length; i++) {
 			if (!installedApps[i]) {
 				String a = appNames[i];
 				int ind = a.indexOf(AppCacheMap.SEPARATOR);
-				db.delete(TABLE_NAME, APP_COL_NAME + " = ? and " + PACKAGE_NAME_COL_NAME + "=?", new String[] { a.substring(ind + 1),
-						a.substring(0, ind) });
+				execute(DELETE_APP, a.substring(ind + 1), a.substring(0, ind));
 			}
 		}
 	}
 
 	public void removePackage(String packageName) {
-		db.delete(TABLE_NAME, PACKAGE_NAME_COL_NAME + "=?", new String[] { packageName });
+		execute(DELETE_PACKAGE, packageName);
 	}
 
-	public String getLabelListString(String packageName, String name) {
+	public String getLabelListString(long appId) {
 		Cursor c = db.rawQuery("select l.label from labels l inner join apps_labels al "
-				+ "on l._id = al.id_label where al.package = ? and al.app = ? order by upper(l.label)", new String[] { packageName, name });
+				+ "on l._id = al.id_label where al.app_id = ? order by upper(l.label)", new String[] { Long.toString(appId) });
 		StringBuilder b = new StringBuilder();
 		try {
 			while (c.moveToNext()) {
@@ -25,6 +25,9 @@ public class DatabaseHelper extends DatabaseHelperBasic {
 	public final AppLabelDao appsLabelDao;
 	public final LabelDao labelDao;
 	public final AppCacheDao appCacheDao;
+	public final PackageFingerprintDao packageFingerprintDao;
+	public final IconDao iconDao;
+	public final IconPackDao iconPackDao;
 
 	private static DatabaseHelper singleton;
 
@@ -50,9 +53,15 @@ public class DatabaseHelper extends DatabaseHelperBasic {
 		labelDao = new LabelDao();
 		appsLabelDao = new AppLabelDao();
 		appCacheDao = new AppCacheDao();
+		packageFingerprintDao = new PackageFingerprintDao();
+		iconDao = new IconDao();
+		iconPackDao = new IconPackDao();
 		labelDao.setDb(db);
 		appsLabelDao.setDb(db);
 		appCacheDao.setDb(db);
+		packageFingerprintDao.setDb(db);
+		iconDao.setDb(db);
+		iconPackDao.setDb(db);
 	}
 
 	public void beginTransaction() {
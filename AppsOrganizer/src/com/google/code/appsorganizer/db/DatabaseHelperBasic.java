@@ -18,6 +18,8 @@
  */
 package com.google.code.appsorganizer.db;
 
+import java.util.ArrayList;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -33,7 +35,7 @@ public class DatabaseHelperBasic extends SQLiteOpenHelper {
 
 	private static final String TAG = "DatabaseHelper";
 
-	private static final int DATABASE_VERSION = 25;
+	private static final int DATABASE_VERSION = 31;
 
 	protected final SQLiteDatabase db;
 
@@ -45,11 +47,19 @@ public class DatabaseHelperBasic extends SQLiteOpenHelper {
 		db = getWritableDatabase();
 	}
 
+	public Context getContext() {
+		return context;
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(LabelDao.getCreateTableScript());
 		db.execSQL(AppLabelDao.getCreateTableScript());
 		db.execSQL(AppCacheDao.getCreateTableScript());
+		db.execSQL(PackageFingerprintDao.getCreateTableScript());
+		db.execSQL(IconDao.getCreateTableScript());
+		db.execSQL(IconPackDao.getCreateTableScript());
+		createIndexes(db);
 
 		long internetId = insertLabel(db, null, context.getString(R.string.label_default_internet), Label.convertToIconDb(R.drawable.globe));
 		long androidId = insertLabel(db, null, context.getString(R.string.label_default_android), Label.convertToIconDb(R.drawable.pda_black));
@@ -126,6 +136,33 @@ public class DatabaseHelperBasic extends SQLiteOpenHelper {
 		if (oldVersion <= 24) {
 			addColumn(db, AppCacheDao.TABLE_NAME, AppCacheDao.DISABLED);
 		}
+		if (oldVersion <= 25) {
+			db.execSQL(PackageFingerprintDao.getCreateTableScript());
+		}
+		if (oldVersion <= 26) {
+			db.execSQL(IconDao.getCreateTableScript());
+			addColumn(db, AppCacheDao.TABLE_NAME, AppCacheDao.ICON_ID);
+			moveIconsToIconTable(db);
+		}
+		if (oldVersion <= 27) {
+			db.execSQL(IconPackDao.getCreateTableScript());
+		}
+		if (oldVersion <= 29) {
+			addColumn(db, AppLabelDao.TABLE_NAME, AppLabelDao.APP_ID);
+		}
+		if (oldVersion <= 30) {
+			// the unique indexes can be created only without duplicates
+			AppCacheDao.deleteDuplicates(db);
+			AppLabelDao.linkApps(db);
+			AppLabelDao.deleteDuplicates(db);
+			for (String script : AppCacheDao.getDropIndexScripts()) {
+				db.execSQL(script);
+			}
+			for (String script : AppLabelDao.getDropIndexScripts()) {
+				db.execSQL(script);
+			}
+			createIndexes(db);
+		}
 		// db.execSQL(appsLabelDao.getDropTableScript());
 		// db.execSQL(labelDao.getDropTableScript());
 		// onCreate(db);
@@ -135,28 +172,38 @@ public class DatabaseHelperBasic extends SQLiteOpenHelper {
 		addPackages(db);
 	}
 
+	/**
+	 * Sets the package of the labels saved without it (old versions and old
+	 * export files). A row is ignored by the unique index if the app already
+	 * has the label with the package, the rows left without package are
+	 * deleted together with the ones of the apps not installed
+	 */
 	private void addPackages(SQLiteDatabase db) {
-		Cursor query = db.query(AppLabelDao.TABLE_NAME, new String[] { "_id", AppLabelDao.APP_COL_NAME }, AppLabelDao.PACKAGE_NAME_COL_NAME
-				+ " is null", null, null, null, null);
+		// apps read before the updates, the updated rows leave the filter
+		ArrayList<String> apps = new ArrayList<String>();
+		Cursor query = db.query(AppLabelDao.TABLE_NAME, new String[] { AppLabelDao.APP_COL_NAME }, AppLabelDao.PACKAGE_NAME_COL_NAME
+				+ " is null", null, AppLabelDao.APP_COL_NAME, null, null);
 		try {
 			while (query.moveToNext()) {
-				Cursor c = db.query(AppCacheDao.TABLE_NAME, new String[] { AppCacheDao.PACKAGE_NAME_COL_NAME }, AppCacheDao.NAME_COL_NAME
-						+ "=?", new String[] { query.getString(1) }, null, null, null);
-				try {
-					if (c.moveToNext()) {
-						ContentValues contentValues = new ContentValues();
-						contentValues.put(AppLabelDao.PACKAGE_NAME_COL_NAME, c.getString(0));
-						db.update(AppLabelDao.TABLE_NAME, contentValues, "_id=?", new String[] { Long.toString(query.getLong(0)) });
-					} else {
-						db.delete(AppLabelDao.TABLE_NAME, "_id=?", new String[] { Long.toString(query.getLong(0)) });
-					}
-				} finally {
-					c.close();
-				}
+				apps.add(query.getString(0));
 			}
 		} finally {
 			query.close();
 		}
+		for (String app : apps) {
+			Cursor c = db.query(AppCacheDao.TABLE_NAME, new String[] { AppCacheDao.PACKAGE_NAME_COL_NAME }, AppCacheDao.NAME_COL_NAME + "=?",
+					new String[] { app }, null, null, null);
+			try {
+				if (c.moveToNext()) {
+					db.execSQL("update or ignore " + AppLabelDao.TABLE_NAME + " set " + AppLabelDao.PACKAGE_NAME_COL_NAME + "=? where "
+							+ AppLabelDao.PACKAGE_NAME_COL_NAME + " is null and " + AppLabelDao.APP_COL_NAME + "=?", new Object[] {
+							c.getString(0), app });
+				}
+			} finally {
+				c.close();
+			}
+		}
+		db.delete(AppLabelDao.TABLE_NAME, AppLabelDao.PACKAGE_NAME_COL_NAME + " is null", null);
 		//
 		// db.execSQL("update " + AppLabelDao.TABLE_NAME + " set " +
 		// AppLabelDao.PACKAGE_NAME_COL_NAME + "=(select min(ac.package) from "
@@ -166,6 +213,42 @@ public class DatabaseHelperBasic extends SQLiteOpenHelper {
 		// + AppLabelDao.PACKAGE_NAME_COL_NAME + " is null");
 	}
 
+	static void createIndexes(SQLiteDatabase db) {
+		for (String script : AppCacheDao.getCreateIndexScripts()) {
+			db.execSQL(script);
+		}
+		for (String script : AppLabelDao.getCreateIndexScripts()) {
+			db.execSQL(script);
+		}
+	}
+
+	private static final String MOVE_ICONS_BATCH = "20";
+
+	/**
+	 * The icons are read in small batches: a cursor on all of them would be
+	 * requeried when it fills its window and, as the moved rows leave the
+	 * filter, it would skip the rows not moved yet
+	 */
+	private void moveIconsToIconTable(SQLiteDatabase db) {
+		boolean moved = true;
+		while (moved) {
+			moved = false;
+			Cursor c = db.query(AppCacheDao.TABLE_NAME, new String[] { AppCacheDao.ID_COL_NAME, AppCacheDao.IMAGE_COL_NAME },
+					AppCacheDao.IMAGE_COL_NAME + " is not null", null, null, null, null, MOVE_ICONS_BATCH);
+			try {
+				while (c.moveToNext()) {
+					ContentValues v = new ContentValues();
+					v.put(AppCacheDao.ICON_ID_COL_NAME, IconDao.store(db, c.getBlob(1)));
+					v.putNull(AppCacheDao.IMAGE_COL_NAME);
+					db.update(AppCacheDao.TABLE_NAME, v, AppCacheDao.ID_COL_NAME + "=?", new String[] { Long.toString(c.getLong(0)) });
+					moved = true;
+				}
+			} finally {
+				c.close();
+			}
+		}
+	}
+
 	private boolean addColumn(SQLiteDatabase db, String tableName, DbColumns column) {
 		// add column only if does't exists
 		Cursor c = null;
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.db;
+
+import java.io.File;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.code.appsorganizer.AppsOrganizerApplication;
+import com.google.code.appsorganizer.model.AppCache;
+
+/**
+ * Times the queries used by the lists and by the shortcut folders on a
+ * synthetic in memory database (APPS apps, LABELS labels, LABELS_PER_APP
+ * labels for every app), before and after the creation of the indexes, and
+ * the inserts of the reload for every batch size of AppCacheWriter
+ */
+public class DbBenchmark {
+
+	private static final int APPS = 1000;
+
+	private static final int LABELS = 100;
+
+	private static final int LABELS_PER_APP = 3;
+
+	private static final int[] BATCH_SIZES = new int[] { AppCacheWriter.AUTOCOMMIT, AppCacheWriter.DEFAULT_BATCH_SIZE,
+			AppCacheWriter.SINGLE_TRANSACTION };
+
+	private DbBenchmark() {
+	}
+
+	/**
+	 * Returns the report (also written in the log), to be called outside the
+	 * ui thread
+	 */
+	public static String run(Context context) {
+		StringBuilder report = new StringBuilder();
+		measureQueries(report);
+		measureWrites(new File(context.getCacheDir(), "benchmark.db"), report);
+		Log.i(AppsOrganizerApplication.TAG, "Db benchmark\n" + report);
+		return report.toString();
+	}
+
+	private static void measureQueries(StringBuilder report) {
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		try {
+			db.execSQL(LabelDao.getCreateTableScript());
+			db.execSQL(AppLabelDao.getCreateTableScript());
+			db.execSQL(AppCacheDao.getCreateTableScript());
+			fill(db);
+			AppLabelDao.linkApps(db);
+
+			report.append(APPS).append(" apps, ").append(LABELS).append(" labels\n");
+			report.append("without indexes\n");
+			measure(db, report);
+			DatabaseHelperBasic.createIndexes(db);
+			report.append("with indexes\n");
+			measure(db, report);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * The writes are timed on a file (an in memory database has no commit
+	 * cost), a new one for every batch size
+	 */
+	private static void measureWrites(File file, StringBuilder report) {
+		report.append("reload inserts x").append(APPS).append('\n');
+		for (int size : BATCH_SIZES) {
+			file.delete();
+			SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+			try {
+				db.execSQL(AppCacheDao.getCreateTableScript());
+				db.execSQL(AppLabelDao.getCreateTableScript());
+				DatabaseHelperBasic.createIndexes(db);
+				long start = SystemClock.uptimeMillis();
+				AppCacheWriter writer = new AppCacheWriter(db, size);
+				try {
+					writer.begin();
+					for (int i = 0; i < APPS; i++) {
+						String packageName = packageName(i);
+						writer.insert(new AppCache(packageName, packageName + ".MainActivity", "App " + i));
+					}
+					writer.commit();
+				} finally {
+					writer.close();
+				}
+				append(report, "batch size " + (size == AppCacheWriter.SINGLE_TRANSACTION ? "all" : Integer.toString(size)), start);
+			} finally {
+				db.close();
+				file.delete();
+			}
+		}
+	}
+
+	private static void fill(SQLiteDatabase db) {
+		db.beginTransaction();
+		try {
+			SQLiteStatement label = db.compileStatement("insert into labels (_id, label) values (?, ?)");
+			for (int i = 1; i <= LABELS; i++) {
+				label.bindLong(1, i);
+				label.bindString(2, "label" + i);
+				label.executeInsert();
+			}
+			label.close();
+
+			SQLiteStatement app = db.compileStatement("insert into apps (name, label, starred, package, disabled) values (?, ?, ?, ?, 0)");
+			SQLiteStatement appLabel = db.compileStatement("insert into apps_labels (app, id_label, package) values (?, ?, ?)");
+			for (int i = 0; i < APPS; i++) {
+				String packageName = packageName(i);
+				String name = packageName + ".MainActivity";
+				app.bindString(1, name);
+				app.bindString(2, "App " + i);
+				app.bindLong(3, i % 10 == 0 ? 1 : 0);
+				app.bindString(4, packageName);
+				app.executeInsert();
+				// the last apps have no labels
+				if (i < APPS * 9 / 10) {
+					for (int j = 0; j < LABELS_PER_APP; j++) {
+						appLabel.bindString(1, name);
+						appLabel.bindLong(2, (i * 7 + j * 31) % LABELS + 1);
+						appLabel.bindString(3, packageName);
+						appLabel.executeInsert();
+					}
+				}
+			}
+			app.close();
+			appLabel.close();
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private static String packageName(int i) {
+		return "com.example.benchmark.app" + i;
+	}
+
+	private static void measure(SQLiteDatabase db, StringBuilder report) {
+		AppCacheDao appCacheDao = new AppCacheDao();
+		appCacheDao.setDb(db);
+		AppLabelDao appLabelDao = new AppLabelDao();
+		appLabelDao.setDb(db);
+		LabelDao labelDao = new LabelDao();
+		labelDao.setDb(db);
+
+		long start = SystemClock.uptimeMillis();
+		for (long labelId = 1; labelId <= LABELS; labelId++) {
+			consume(AppCacheDao.getAppsOfLabelCursor(db, labelId, true, false));
+		}
+		append(report, "getAppsOfLabelCursor x" + LABELS, start);
+
+		start = SystemClock.uptimeMillis();
+		for (long labelId = 1; labelId <= LABELS; labelId++) {
+			consume(appCacheDao.getAppsCursor(labelId));
+		}
+		append(report, "getAppsCursor x" + LABELS, start);
+
+		start = SystemClock.uptimeMillis();
+		for (long labelId = 1; labelId <= LABELS; labelId++) {
+			consume(appCacheDao.getAppsOfLabel(labelId));
+		}
+		append(report, "getAppsOfLabel x" + LABELS, start);
+
+		start = SystemClock.uptimeMillis();
+		consume(appCacheDao.getAppsNoLabelCursor());
+		append(report, "getAppsNoLabelCursor", start);
+
+		start = SystemClock.uptimeMillis();
+		for (int i = 0; i < APPS; i += 10) {
+			String packageName = packageName(i);
+			labelDao.getAppsLabelList(packageName, packageName + ".MainActivity");
+			appLabelDao.getLabelListString(i + 1);
+		}
+		append(report, "labels of an app x" + APPS / 10, start);
+	}
+
+	private static void consume(Cursor c) {
+		try {
+			while (c.moveToNext()) {
+				c.getString(1);
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private static void append(StringBuilder report, String query, long start) {
+		report.append("  ").append(query).append(": ").append(SystemClock.uptimeMillis() - start).append("ms\n");
+	}
+}
@@ -25,6 +25,8 @@ import java.util.List;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 
 public abstract class DbDao<T> {
 
@@ -34,6 +36,13 @@ public abstract class DbDao<T> {
 
 	protected DbColumns[] columns;
 
+	/**
+	 * statements compiled by the dao (by sql), used by the writes called many
+	 * times in a row (label edits, starring). Bound and executed holding the
+	 * lock of the map because a statement can't be shared between threads
+	 */
+	private final HashMap<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
 	public DbDao(String name) {
 		this.name = name;
 	}
@@ -65,6 +74,30 @@ public abstract class DbDao<T> {
 		return b.toString();
 	}
 
+	public static String getCreateIndexScript(String indexName, String table, DbColumns... columns) {
+		return getCreateIndexScript(false, indexName, table, columns);
+	}
+
+	public static String getCreateUniqueIndexScript(String indexName, String table, DbColumns... columns) {
+		return getCreateIndexScript(true, indexName, table, columns);
+	}
+
+	private static String getCreateIndexScript(boolean unique, String indexName, String table, DbColumns... columns) {
+		StringBuilder b = new StringBuilder(unique ? "create unique index if not exists " : "create index if not exists ");
+		b.append(indexName);
+		b.append(" on ");
+		b.append(table);
+		b.append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				b.append(',');
+			}
+			b.append(columns[i].getName());
+		}
+		b.append(");");
+		return b.toString();
+	}
+
 	public String getDropTableScript() {
 		return "DROP TABLE IF EXISTS " + name;
 	}
@@ -143,9 +176,137 @@ public abstract class DbDao<T> {
 	protected abstract ContentValues createContentValue(T obj);
 
 	public void setDb(SQLiteDatabase db) {
+		closeStatements();
 		this.db = db;
 	}
 
+	/**
+	 * Executes an insert with a cached statement, returns the id of the row
+	 */
+	protected long executeInsert(String sql, Object... args) {
+		synchronized (statements) {
+			SQLiteStatement s = getStatement(sql);
+			bind(s, args);
+			return s.executeInsert();
+		}
+	}
+
+	/**
+	 * Executes a write with a cached statement, for the callers that don't
+	 * need the number of rows changed (no transaction and no changes() query)
+	 */
+	protected void execute(String sql, Object... args) {
+		synchronized (statements) {
+			SQLiteStatement s = getStatement(sql);
+			bind(s, args);
+			s.execute();
+		}
+	}
+
+	/**
+	 * Executes an update or a delete with a cached statement, returns the
+	 * number of rows changed. The connection is shared with the writes of the
+	 * other daos (and of the reload thread), the transaction keeps other
+	 * statements from running before changes() is read
+	 */
+	protected int executeUpdateDelete(String sql, Object... args) {
+		synchronized (statements) {
+			db.beginTransaction();
+			try {
+				SQLiteStatement s = getStatement(sql);
+				bind(s, args);
+				s.execute();
+				int changes = (int) getStatement("select changes()").simpleQueryForLong();
+				db.setTransactionSuccessful();
+				return changes;
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Executes an insert or ignore with a cached statement, returns the id of
+	 * the new row or -1 if the row was ignored by a unique constraint
+	 */
+	protected long executeInsertOrIgnore(String sql, Object... args) {
+		synchronized (statements) {
+			db.beginTransaction();
+			try {
+				SQLiteStatement s = getStatement(sql);
+				bind(s, args);
+				s.execute();
+				long id = -1;
+				if (getStatement("select changes()").simpleQueryForLong() > 0) {
+					id = getStatement("select last_insert_rowid()").simpleQueryForLong();
+				}
+				db.setTransactionSuccessful();
+				return id;
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Executes a query returning a number with a cached statement, returns
+	 * defaultValue if there are no rows
+	 */
+	protected long executeQueryForLong(String sql, long defaultValue, Object... args) {
+		synchronized (statements) {
+			SQLiteStatement s = getStatement(sql);
+			bind(s, args);
+			try {
+				return s.simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				return defaultValue;
+			}
+		}
+	}
+
+	private SQLiteStatement getStatement(String sql) {
+		SQLiteStatement s = statements.get(sql);
+		if (s == null) {
+			s = db.compileStatement(sql);
+			statements.put(sql, s);
+		}
+		return s;
+	}
+
+	public void closeStatements() {
+		synchronized (statements) {
+			for (SQLiteStatement s : statements.values()) {
+				s.close();
+			}
+			statements.clear();
+		}
+	}
+
+	protected static void bind(SQLiteStatement s, Object... args) {
+		s.clearBindings();
+		for (int i = 0; i < args.length; i++) {
+			bind(s, i + 1, args[i]);
+		}
+	}
+
+	protected static void bind(SQLiteStatement s, int index, Object value) {
+		if (value == null) {
+			s.bindNull(index);
+		} else if (value instanceof String) {
+			s.bindString(index, (String) value);
+		} else if (value instanceof Boolean) {
+			s.bindLong(index, ((Boolean) value) ? 1 : 0);
+		} else if (value instanceof Double || value instanceof Float) {
+			s.bindDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			s.bindLong(index, ((Number) value).longValue());
+		} else if (value instanceof byte[]) {
+			s.bindBlob(index, (byte[]) value);
+		} else {
+			throw new IllegalArgumentException("Unsupported type " + value.getClass().getName());
+		}
+	}
+
 	protected T[] convertCursorToArray(Cursor c, T[] l) {
 		try {
 			int i = 0;
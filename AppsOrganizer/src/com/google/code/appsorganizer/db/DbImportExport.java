@@ -128,6 +128,7 @@ public class DbImportExport {
 		importStarred(dbHelper.appCacheDao, in);
 		// old files doesn't contain package
 		dbHelper.addPackages();
+		dbHelper.appsLabelDao.linkApps();
 	}
 
 	private static void importStarred(AppCacheDao appCacheDao, BufferedReader in) throws IOException {
@@ -155,15 +156,14 @@ public class DbImportExport {
 			}
 			if (s.startsWith(LABEL_PREFIX)) {
 				String labelName = s.substring(labelPrefixLength);
-				if (!appLabelAlreadyExist(appsLabels, curApp, labelName)) {
+				int indexOf = curApp.indexOf(AppCacheMap.SEPARATOR);
+				if (indexOf != -1) {
+					// the row is ignored if the app already has the label
+					appsLabelDao.insert(curApp.substring(0, indexOf), curApp.substring(indexOf + 1), labelsId.get(labelName));
+				} else if (!appLabelAlreadyExist(appsLabels, curApp, labelName)) {
+					// old files, without package (not covered by the unique index)
 					AppLabel appLabel = new AppLabel();
-					int indexOf = curApp.indexOf(AppCacheMap.SEPARATOR);
-					if (indexOf == -1) {
-						appLabel.setApp(curApp);
-					} else {
-						appLabel.setApp(curApp.substring(indexOf + 1));
-						appLabel.setPackageName(curApp.substring(0, indexOf));
-					}
+					appLabel.setApp(curApp);
 					appLabel.setLabelId(labelsId.get(labelName));
 					appsLabelDao.insert(appLabel);
 				}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.db;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.code.appsorganizer.model.Icon;
+
+/**
+ * Content addressed store of the app icons: the apps table contains only the
+ * id of the icon, identical icons are stored once
+ */
+public class IconDao extends ObjectWithIdDao<Icon> {
+
+	public static final String HASH_COL_NAME = "hash";
+
+	public static final String IMAGE_COL_NAME = "image";
+
+	public static final String TABLE_NAME = "icons";
+
+	public static final DbColumns HASH = new DbColumns(HASH_COL_NAME, "text not null unique");
+	public static final DbColumns IMAGE = new DbColumns(IMAGE_COL_NAME, "blob not null");
+
+	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, HASH, IMAGE };
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	IconDao() {
+		super(TABLE_NAME);
+		columns = DB_COLUMNS;
+	}
+
+	public byte[] getImage(long id) {
+		return getImage(db, id);
+	}
+
+	public static byte[] getImage(SQLiteDatabase db, long id) {
+		Cursor c = db.query(TABLE_NAME, new String[] { IMAGE_COL_NAME }, ID_COL_NAME + "=?", new String[] { Long.toString(id) }, null, null,
+				null);
+		try {
+			if (c.moveToNext()) {
+				return c.getBlob(0);
+			}
+		} finally {
+			c.close();
+		}
+		return null;
+	}
+
+	public static long[] getIconIds(SQLiteDatabase db) {
+		Cursor c = db.query(TABLE_NAME, new String[] { ID_COL_NAME }, null, null, null, null, null);
+		try {
+			long[] ids = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+				ids[i] = c.getLong(0);
+			}
+			return ids;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Returns the id of the icon with the same content, the icon is inserted
+	 * if not already stored
+	 */
+	static long store(SQLiteDatabase db, byte[] image) {
+		String hash = hash(image);
+		Cursor c = db.query(TABLE_NAME, new String[] { ID_COL_NAME }, HASH_COL_NAME + "=?", new String[] { hash }, null, null, null);
+		try {
+			if (c.moveToNext()) {
+				return c.getLong(0);
+			}
+		} finally {
+			c.close();
+		}
+		ContentValues v = new ContentValues();
+		v.put(HASH_COL_NAME, hash);
+		v.put(IMAGE_COL_NAME, image);
+		return db.insert(TABLE_NAME, null, v);
+	}
+
+	/**
+	 * Deletes the icons not used by any app
+	 */
+	public int deleteUnused() {
+		return db.delete(TABLE_NAME, getUnusedFilter(), null);
+	}
+
+	static String getUnusedFilter() {
+		return ID_COL_NAME + " not in (select " + AppCacheDao.ICON_ID_COL_NAME + " from " + AppCacheDao.TABLE_NAME + " where "
+				+ AppCacheDao.ICON_ID_COL_NAME + " is not null)";
+	}
+
+	public static String hash(byte[] image) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(image);
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected Icon createObject(Cursor c) {
+		Icon i = new Icon(c.getString(1), c.getBlob(2));
+		i.setId(c.getLong(0));
+		return i;
+	}
+
+	@Override
+	protected ContentValues createContentValue(Icon obj) {
+		ContentValues v = new ContentValues();
+		v.put(ID_COL_NAME, obj.getId());
+		v.put(HASH_COL_NAME, obj.hash);
+		v.put(IMAGE_COL_NAME, obj.image);
+		return v;
+	}
+
+	public static String getCreateTableScript() {
+		return getCreateTableScript(TABLE_NAME, DB_COLUMNS);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.db;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.google.code.appsorganizer.model.IconPack;
+
+/**
+ * Index of the apks scanned looking for icon packs, also the apks without
+ * images are saved so they are not scanned again until they are modified
+ */
+public class IconPackDao extends ObjectWithIdDao<IconPack> {
+
+	public static final String APK_COL_NAME = "apk";
+
+	public static final String LAST_MODIFIED_COL_NAME = "last_modified";
+
+	public static final String IMAGES_COL_NAME = "images";
+
+	public static final String TABLE_NAME = "icon_packs";
+
+	private static final String[] COLS_STRING = new String[] { ID_COL_NAME, APK_COL_NAME, LAST_MODIFIED_COL_NAME, IMAGES_COL_NAME };
+
+	public static final DbColumns APK = new DbColumns(APK_COL_NAME, "text not null unique");
+	public static final DbColumns LAST_MODIFIED = new DbColumns(LAST_MODIFIED_COL_NAME, "integer not null default 0");
+	public static final DbColumns IMAGES = new DbColumns(IMAGES_COL_NAME, "integer not null default 0");
+
+	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, APK, LAST_MODIFIED, IMAGES };
+
+	IconPackDao() {
+		super(TABLE_NAME);
+		columns = DB_COLUMNS;
+	}
+
+	public HashMap<String, IconPack> getIconPackMap() {
+		Cursor c = db.query(TABLE_NAME, COLS_STRING, null, null, null, null, null);
+		HashMap<String, IconPack> m = new HashMap<String, IconPack>(c.getCount());
+		try {
+			while (c.moveToNext()) {
+				IconPack p = createObject(c);
+				m.put(p.apk, p);
+			}
+		} finally {
+			c.close();
+		}
+		return m;
+	}
+
+	/**
+	 * Saves the scanned apks and removes the apks no longer installed in a
+	 * single transaction
+	 */
+	public void update(Collection<IconPack> scanned, Collection<String> removed) {
+		if (scanned.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		db.beginTransaction();
+		try {
+			for (IconPack p : scanned) {
+				db.replace(TABLE_NAME, null, createContentValue(p));
+			}
+			for (String apk : removed) {
+				db.delete(TABLE_NAME, APK_COL_NAME + "=?", new String[] { apk });
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	protected IconPack createObject(Cursor c) {
+		IconPack p = new IconPack(c.getString(1), c.getLong(2), c.getInt(3));
+		p.setId(c.getLong(0));
+		return p;
+	}
+
+	@Override
+	protected ContentValues createContentValue(IconPack obj) {
+		ContentValues v = new ContentValues();
+		v.put(APK_COL_NAME, obj.apk);
+		v.put(LAST_MODIFIED_COL_NAME, obj.lastModified);
+		v.put(IMAGES_COL_NAME, obj.images);
+		return v;
+	}
+
+	public static String getCreateTableScript() {
+		return getCreateTableScript(TABLE_NAME, DB_COLUMNS);
+	}
+}
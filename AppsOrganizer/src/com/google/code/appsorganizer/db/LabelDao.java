@@ -28,6 +28,7 @@ import android.database.Cursor;
 import com.google.code.appsorganizer.AppLabelBinding;
 import com.google.code.appsorganizer.maps.AppCacheMap;
 import com.google.code.appsorganizer.model.Label;
+import com.google.code.appsorganizer.utils.IconCache;
 
 public class LabelDao extends ObjectWithIdDao<Label> {
 
@@ -49,6 +50,16 @@ public class LabelDao extends ObjectWithIdDao<Label> {
 
 	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, LABEL, ICON, IMAGE };
 
+	private static final String INSERT = "insert or ignore into " + TABLE_NAME + " (" + LABEL_COL_NAME + "," + ICON_COL_NAME
+			+ ") values (?,?)";
+
+	private static final String SELECT_ID = "select " + ID_COL_NAME + " from " + TABLE_NAME + " where " + LABEL_COL_NAME + "=?";
+
+	private static final String UPDATE_NAME = "update or ignore " + TABLE_NAME + " set " + LABEL_COL_NAME + "=? where " + ID_COL_NAME + "=?";
+
+	private static final String UPDATE_ICON = "update " + TABLE_NAME + " set " + ICON_COL_NAME + "=?," + IMAGE_COL_NAME + "=? where "
+			+ ID_COL_NAME + "=?";
+
 	LabelDao() {
 		super(TABLE_NAME);
 		columns = DB_COLUMNS;
@@ -120,16 +131,28 @@ public class LabelDao extends ObjectWithIdDao<Label> {
 	}
 
 	public long insert(String label) {
-		ContentValues v = new ContentValues();
-		v.put(LABEL_COL_NAME, label);
-		return db.insert(name, null, v);
+		return insert(label, null);
 	}
 
 	public long insert(String label, int icon) {
-		ContentValues v = new ContentValues();
-		v.put(LABEL_COL_NAME, label);
-		v.put(ICON_COL_NAME, icon);
-		return db.insert(name, null, v);
+		return insert(label, Integer.valueOf(icon));
+	}
+
+	/**
+	 * Inserts a new label, returns -1 if there is already a label with the
+	 * same name
+	 */
+	public long insertNew(String label) {
+		return executeInsertOrIgnore(INSERT, label, null);
+	}
+
+	/**
+	 * Inserts the label if there isn't a label with the same name, returns the
+	 * id of the new label or of the existing one
+	 */
+	private long insert(String label, Integer icon) {
+		long id = executeInsertOrIgnore(INSERT, label, icon);
+		return id != -1 ? id : executeQueryForLong(SELECT_ID, -1, label);
 	}
 
 	@Override
@@ -156,17 +179,18 @@ public class LabelDao extends ObjectWithIdDao<Label> {
 		return getCreateTableScript(TABLE_NAME, DB_COLUMNS);
 	}
 
+	/**
+	 * Renames the label, returns 0 if there is another label with the new name
+	 */
 	public long updateName(Long id, String name) {
-		ContentValues c = new ContentValues();
-		c.put(LABEL_COL_NAME, name);
-		return db.update(TABLE_NAME, c, "_id = ?", new String[] { id.toString() });
+		return executeUpdateDelete(UPDATE_NAME, name, id);
 	}
 
-	public long updateIcon(Long id, Integer icon, byte[] image) {
-		ContentValues c = new ContentValues();
-		c.put(ICON_COL_NAME, icon);
-		c.put(IMAGE_COL_NAME, image);
-		return db.update(TABLE_NAME, c, "_id = ?", new String[] { id.toString() });
+	public void updateIcon(Long id, Integer icon, byte[] image) {
+		execute(UPDATE_ICON, icon, image, id);
+		// after the update, a bind running before it could cache the old
+		// image again
+		IconCache.getInstance().invalidateLabel(id);
 	}
 
 	public boolean labelAlreadyExists(String name) {
@@ -26,8 +26,11 @@ public abstract class ObjectWithIdDao<T extends ObjectWithId> extends DbDao<T> {
 
 	public static final DbColumns ID = new DbColumns(ID_COL_NAME, "integer primary key autoincrement");
 
+	private final String deleteSql;
+
 	public ObjectWithIdDao(String name) {
 		super(name);
+		deleteSql = "delete from " + name + " where " + ID_COL_NAME + " = ?";
 	}
 
 	@Override
@@ -41,8 +44,8 @@ public abstract class ObjectWithIdDao<T extends ObjectWithId> extends DbDao<T> {
 		return db.update(name, createContentValue(obj), "_id = ?", new String[] { obj.getId().toString() });
 	}
 
-	public int delete(Long id) {
-		return db.delete(name, "_id = ?", new String[] { id.toString() });
+	public void delete(Long id) {
+		execute(deleteSql, id);
 	}
 
 	public T queryById(Long id) {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.db;
+
+import java.util.HashMap;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.google.code.appsorganizer.model.PackageFingerprint;
+
+public class PackageFingerprintDao extends ObjectWithIdDao<PackageFingerprint> {
+
+	public static final String PACKAGE_NAME_COL_NAME = "package";
+
+	public static final String VERSION_CODE_COL_NAME = "version_code";
+
+	public static final String LAST_UPDATE_COL_NAME = "last_update";
+
+	public static final String SOURCE_DIR_COL_NAME = "source_dir";
+
+	public static final String TABLE_NAME = "packages";
+
+	private static final String[] COLS_STRING = new String[] { ID_COL_NAME, PACKAGE_NAME_COL_NAME, VERSION_CODE_COL_NAME, LAST_UPDATE_COL_NAME,
+			SOURCE_DIR_COL_NAME };
+
+	public static final DbColumns PACKAGE_NAME = new DbColumns(PACKAGE_NAME_COL_NAME, "text not null unique");
+	public static final DbColumns VERSION_CODE = new DbColumns(VERSION_CODE_COL_NAME, "integer not null default 0");
+	public static final DbColumns LAST_UPDATE = new DbColumns(LAST_UPDATE_COL_NAME, "integer not null default 0");
+	public static final DbColumns SOURCE_DIR = new DbColumns(SOURCE_DIR_COL_NAME, "text");
+
+	private static final DbColumns[] DB_COLUMNS = new DbColumns[] { ID, PACKAGE_NAME, VERSION_CODE, LAST_UPDATE, SOURCE_DIR };
+
+	PackageFingerprintDao() {
+		super(TABLE_NAME);
+		columns = DB_COLUMNS;
+	}
+
+	public HashMap<String, PackageFingerprint> getFingerprintMap() {
+		Cursor c = db.query(TABLE_NAME, COLS_STRING, null, null, null, null, null);
+		HashMap<String, PackageFingerprint> m = new HashMap<String, PackageFingerprint>(c.getCount());
+		try {
+			while (c.moveToNext()) {
+				PackageFingerprint f = createObject(c);
+				m.put(f.packageName, f);
+			}
+		} finally {
+			c.close();
+		}
+		return m;
+	}
+
+	public int delete(String packageName) {
+		return db.delete(TABLE_NAME, PACKAGE_NAME_COL_NAME + "=?", new String[] { packageName });
+	}
+
+	@Override
+	protected PackageFingerprint createObject(Cursor c) {
+		PackageFingerprint f = new PackageFingerprint(c.getString(1), c.getInt(2), c.getLong(3), c.getString(4));
+		f.setId(c.getLong(0));
+		return f;
+	}
+
+	@Override
+	protected ContentValues createContentValue(PackageFingerprint obj) {
+		ContentValues v = new ContentValues();
+		v.put(ID_COL_NAME, obj.getId());
+		v.put(PACKAGE_NAME_COL_NAME, obj.packageName);
+		v.put(VERSION_CODE_COL_NAME, obj.versionCode);
+		v.put(LAST_UPDATE_COL_NAME, obj.lastUpdateTime);
+		v.put(SOURCE_DIR_COL_NAME, obj.sourceDir);
+		return v;
+	}
+
+	public static String getCreateTableScript() {
+		return getCreateTableScript(TABLE_NAME, DB_COLUMNS);
+	}
+}
@@ -32,7 +32,6 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.database.Cursor;
 import android.os.Handler;
-import android.os.Message;
 
 import com.google.code.appsorganizer.R;
 import com.google.code.appsorganizer.db.AppCacheDao;
@@ -42,6 +41,7 @@ import com.google.code.appsorganizer.dialogs.GenericDialogManagerActivity;
 import com.google.code.appsorganizer.dialogs.OnOkClickListener;
 import com.google.code.appsorganizer.dialogs.SingleSelectDialog;
 import com.google.code.appsorganizer.model.Label;
+import com.google.code.appsorganizer.utils.ProgressReporter;
 
 /**
  * @author fabio
@@ -82,7 +82,7 @@ public class LabelDownloader {
 		@Override
 		public void handleMessage(android.os.Message msg) {
 			if (msg.obj != null) {
-				pd.incrementProgressBy(1);
+				pd.setProgress(msg.arg2);
 				pd.setMessage(msg.obj.toString());
 			} else {
 				if (msg.arg1 > 0) {
@@ -178,16 +178,11 @@ public class LabelDownloader {
 		} else {
 			c = dbHelper.appCacheDao.getAppsNoLabelCursor();
 		}
-		Message message = new Message();
-		message.arg1 = c.getCount();
-		handler.sendMessage(message);
+		ProgressReporter progress = new ProgressReporter(handler);
+		progress.setMax(c.getCount());
 		try {
-			int i = 0;
 			while (c.moveToNext() && !operationCancelled) {
-				message = new Message();
-				message.arg1 = i++;
-				message.obj = c.getString(2);
-				handler.sendMessage(message);
+				progress.increment(c.getString(2));
 
 				String packageName = c.getString(1);
 				String label = download(packageName);
@@ -203,11 +198,12 @@ public class LabelDownloader {
 						}
 						labelsMap.put(label, labelId);
 					}
-					dbHelper.appsLabelDao.merge(packageName, c.getString(0), labelId);
+					dbHelper.appsLabelDao.insert(packageName, c.getString(0), labelId);
 				}
 			}
 		} finally {
 			c.close();
+			progress.flush();
 			handler.sendEmptyMessage(1);
 		}
 	}
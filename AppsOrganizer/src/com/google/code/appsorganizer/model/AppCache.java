@@ -26,7 +26,11 @@ public class AppCache extends ObjectWithId {
 	public final String name;
 	public final String label;
 	public boolean starred;
+	/**
+	 * png image to store, when an app is loaded only iconId is set
+	 */
 	public byte[] image;
+	public long iconId;
 	public boolean disabled;
 
 	public AppCache(String packageName, String name, String label) {
@@ -25,6 +25,7 @@ public class AppLabel extends ObjectWithId {
 	private String app;
 	private String packageName;
 	public long labelId;
+	private Long appId;
 
 	public String getApp() {
 		return app;
@@ -42,6 +43,14 @@ public class AppLabel extends ObjectWithId {
 		this.labelId = labelId;
 	}
 
+	public Long getAppId() {
+		return appId;
+	}
+
+	public void setAppId(Long appId) {
+		this.appId = appId;
+	}
+
 	public String getPackageName() {
 		return packageName;
 	}
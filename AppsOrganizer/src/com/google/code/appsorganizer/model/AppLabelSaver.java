@@ -18,6 +18,7 @@
  */
 package com.google.code.appsorganizer.model;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.code.appsorganizer.AppLabelBinding;
@@ -27,17 +28,20 @@ public class AppLabelSaver {
 
 	public static void save(DatabaseHelper dbHelper, String packageName, String name, List<AppLabelBinding> modifiedLabels) {
 		if (!modifiedLabels.isEmpty()) {
+			ArrayList<Long> added = new ArrayList<Long>();
+			ArrayList<Long> removed = new ArrayList<Long>();
 			for (AppLabelBinding b : modifiedLabels) {
 				Long labelId = b.labelId;
 				if (b.checked) {
-					if (b.checked && labelId == null) {
+					if (labelId == null) {
 						labelId = dbHelper.labelDao.insert(b.label);
 					}
-					dbHelper.appsLabelDao.insert(packageName, name, labelId);
+					added.add(labelId);
 				} else {
-					dbHelper.appsLabelDao.delete(packageName, name, labelId);
+					removed.add(labelId);
 				}
 			}
+			dbHelper.appsLabelDao.updateLabelsOfApp(packageName, name, added, removed);
 		}
 	}
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.model;
+
+import com.google.code.appsorganizer.db.ObjectWithId;
+
+/**
+ * Number of asset images of an apk, valid while the apk is not modified
+ */
+public class IconPack extends ObjectWithId {
+
+	public final String apk;
+	public final long lastModified;
+	public final int images;
+
+	public IconPack(String apk, long lastModified, int images) {
+		this.apk = apk;
+		this.lastModified = lastModified;
+		this.images = images;
+	}
+}
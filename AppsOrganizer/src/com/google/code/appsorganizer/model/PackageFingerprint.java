@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.model;
+
+import java.io.File;
+
+import android.content.pm.PackageInfo;
+
+import com.google.code.appsorganizer.db.ObjectWithId;
+
+/**
+ * Data used to understand if a package has changed since the last reload
+ * (lastUpdateTime is the modification time of the apk file)
+ */
+public class PackageFingerprint extends ObjectWithId {
+
+	public final String packageName;
+	public final int versionCode;
+	public final long lastUpdateTime;
+	public final String sourceDir;
+
+	public PackageFingerprint(String packageName, int versionCode, long lastUpdateTime, String sourceDir) {
+		this.packageName = packageName;
+		this.versionCode = versionCode;
+		this.lastUpdateTime = lastUpdateTime;
+		this.sourceDir = sourceDir;
+	}
+
+	public static PackageFingerprint create(PackageInfo p) {
+		String sourceDir = p.applicationInfo != null ? p.applicationInfo.sourceDir : null;
+		long lastUpdateTime = sourceDir != null ? new File(sourceDir).lastModified() : 0;
+		return new PackageFingerprint(p.packageName, p.versionCode, lastUpdateTime, sourceDir);
+	}
+
+	public boolean sameAs(PackageFingerprint f) {
+		return f != null && versionCode == f.versionCode && lastUpdateTime == f.lastUpdateTime
+				&& (sourceDir == null ? f.sourceDir == null : sourceDir.equals(f.sourceDir));
+	}
+}
@@ -18,17 +18,98 @@
  */
 package com.google.code.appsorganizer.preferences;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
+import android.os.Handler;
+import android.preference.ListPreference;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
+import android.preference.PreferenceScreen;
 
+import com.google.code.appsorganizer.IconCodecBenchmark;
 import com.google.code.appsorganizer.R;
+import com.google.code.appsorganizer.db.DbBenchmark;
+import com.google.code.appsorganizer.utils.IconCodec;
 
 public class PreferencesFromXml extends PreferenceActivity {
 
+	private final Handler handler = new Handler();
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
 		addPreferencesFromResource(R.xml.preferences);
+		removeUnavailableIconFormats();
+		if (!isDebuggable()) {
+			// developer tools, shown only in debug builds
+			getPreferenceScreen().removePreference(findPreference("benchmarks"));
+		}
+	}
+
+	/**
+	 * WebP is in the xml list but it's not supported by all the devices
+	 */
+	private void removeUnavailableIconFormats() {
+		HashSet<String> available = new HashSet<String>();
+		for (IconCodec codec : IconCodec.getAvailableCodecs()) {
+			available.add(codec.getName());
+		}
+		ListPreference p = (ListPreference) findPreference(IconCodec.PREFERENCE);
+		CharSequence[] entries = p.getEntries();
+		CharSequence[] values = p.getEntryValues();
+		ArrayList<CharSequence> newEntries = new ArrayList<CharSequence>(entries.length);
+		ArrayList<CharSequence> newValues = new ArrayList<CharSequence>(values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (available.contains(values[i].toString())) {
+				newEntries.add(entries[i]);
+				newValues.add(values[i]);
+			}
+		}
+		p.setEntries(newEntries.toArray(new CharSequence[newEntries.size()]));
+		p.setEntryValues(newValues.toArray(new CharSequence[newValues.size()]));
+	}
+
+	private boolean isDebuggable() {
+		try {
+			return (getPackageManager().getApplicationInfo(getPackageName(), 0).flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+		} catch (NameNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean onPreferenceTreeClick(PreferenceScreen preferenceScreen, Preference preference) {
+		if ("icon_benchmark".equals(preference.getKey())) {
+			runBenchmark(R.string.icon_benchmark, false);
+			return true;
+		} else if ("db_benchmark".equals(preference.getKey())) {
+			runBenchmark(R.string.db_benchmark, true);
+			return true;
+		}
+		return super.onPreferenceTreeClick(preferenceScreen, preference);
+	}
+
+	private void runBenchmark(final int title, final boolean dbBenchmark) {
+		final ProgressDialog pd = ProgressDialog.show(this, getText(title), getText(R.string.please_wait_loading), true);
+		new Thread() {
+			@Override
+			public void run() {
+				final String report = dbBenchmark ? DbBenchmark.run(PreferencesFromXml.this) : IconCodecBenchmark.run(PreferencesFromXml.this);
+				handler.post(new Runnable() {
+					public void run() {
+						pd.dismiss();
+						new AlertDialog.Builder(PreferencesFromXml.this).setTitle(title).setMessage(report)
+								.setPositiveButton(android.R.string.ok, null).show();
+					}
+				});
+			}
+		}.start();
 	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.service;
+
+import java.util.HashSet;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.code.appsorganizer.ApplicationInfoManager;
+import com.google.code.appsorganizer.AppsOrganizerApplication;
+import com.google.code.appsorganizer.SplashScreenActivity;
+import com.google.code.appsorganizer.db.DatabaseHelper;
+
+/**
+ * Receives package and media events from the broadcast receivers and
+ * updates the apps table on a background thread. Events received within
+ * DEBOUNCE_DELAY are merged in a single reload
+ */
+public class PackageChangeService extends Service {
+
+	private static final String EXTRA_PACKAGE = "package";
+
+	private static final String EXTRA_RELOAD_ALL = "reloadAll";
+
+	private static final long DEBOUNCE_DELAY = 2000;
+
+	private static final int RELOAD = 1;
+
+	private HandlerThread thread;
+
+	private Handler handler;
+
+	private final HashSet<String> pendingPackages = new HashSet<String>();
+
+	private boolean pendingReloadAll;
+
+	private int lastStartId;
+
+	public static void packageChanged(Context context, String packageName) {
+		Intent intent = new Intent(context, PackageChangeService.class);
+		intent.putExtra(EXTRA_PACKAGE, packageName);
+		context.startService(intent);
+	}
+
+	public static void mediaMounted(Context context) {
+		Intent intent = new Intent(context, PackageChangeService.class);
+		intent.putExtra(EXTRA_RELOAD_ALL, true);
+		context.startService(intent);
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return null;
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		thread = new HandlerThread("PackageChangeService", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper()) {
+			@Override
+			public void handleMessage(Message msg) {
+				reload();
+			}
+		};
+	}
+
+	@Override
+	public void onStart(Intent intent, int startId) {
+		super.onStart(intent, startId);
+		synchronized (this) {
+			if (intent != null) {
+				String packageName = intent.getStringExtra(EXTRA_PACKAGE);
+				if (packageName != null) {
+					pendingPackages.add(packageName);
+				}
+				if (intent.getBooleanExtra(EXTRA_RELOAD_ALL, false)) {
+					pendingReloadAll = true;
+				}
+			}
+			lastStartId = startId;
+		}
+		handler.removeMessages(RELOAD);
+		handler.sendEmptyMessageDelayed(RELOAD, DEBOUNCE_DELAY);
+	}
+
+	private void reload() {
+		HashSet<String> packages;
+		boolean reloadAll;
+		int startId;
+		synchronized (this) {
+			packages = new HashSet<String>(pendingPackages);
+			reloadAll = pendingReloadAll;
+			startId = lastStartId;
+			pendingPackages.clear();
+			pendingReloadAll = false;
+		}
+		Log.i(AppsOrganizerApplication.TAG, "PackageChangeService reload " + packages + (reloadAll ? " (all)" : ""));
+		try {
+			DatabaseHelper dbHelper = DatabaseHelper.initOrSingleton(this);
+			if (!packages.isEmpty()) {
+				ApplicationInfoManager.reloadPackages(getPackageManager(), dbHelper, packages);
+			}
+			if (reloadAll) {
+				ApplicationInfoManager.reloadAll(getPackageManager(), dbHelper, null, false, null);
+				// rimetto first time in modo da far ricaricare la lista delle
+				// applicazioni
+				SplashScreenActivity.firstTime = true;
+			}
+		} catch (Throwable t) {
+			Log.e(AppsOrganizerApplication.TAG, "Error reloading apps", t);
+		}
+		stopSelf(startId);
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		thread.getLooper().quit();
+	}
+}
@@ -27,10 +27,10 @@ import android.content.SharedPreferences.Editor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteCursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.MessageQueue;
 import android.preference.PreferenceManager;
@@ -70,6 +70,8 @@ import com.google.code.appsorganizer.db.LabelDao;
 import com.google.code.appsorganizer.dialogs.ActivityWithDialog;
 import com.google.code.appsorganizer.dialogs.OnOkClickListener;
 import com.google.code.appsorganizer.model.Label;
+import com.google.code.appsorganizer.utils.IconAtlas;
+import com.google.code.appsorganizer.utils.IconCache;
 
 public class LabelShortcut extends ActivityWithDialog {
 
@@ -170,11 +172,11 @@ public class LabelShortcut extends ActivityWithDialog {
 			Cursor tmpCursor;
 			if (labelId == ALL_STARRED_ID) {
 				tmpCursor = getDbHelper().getDb().rawQuery(
-						"select _id, label, image, package, name from apps where starred = 1 and disabled = 0 order by upper(label)", null);
+						"select _id, label, icon_id, package, name from apps where starred = 1 and disabled = 0 order by upper(label)", null);
 			} else if (labelId == OTHER_APPS) {
 				tmpCursor = getDbHelper().getDb().rawQuery(
-						"select a._id, a.label, a.image, a.package, a.name from apps a where a.disabled = 0 and not exists("
-								+ "select 1 from apps_labels al where a.name = al.app and a.package = al.package) order by upper(a.label)", null);
+						"select a._id, a.label, a.icon_id, a.package, a.name from apps a where a.disabled = 0 and not exists("
+								+ "select 1 from apps_labels al where al.app_id = a._id) order by upper(a.label)", null);
 			} else {
 				boolean starredFirst = prefs.getBoolean("starred_first", true);
 				boolean onlyStarred = prefs.getBoolean(ONLY_STARRED_PREF, false);
@@ -274,7 +276,7 @@ public class LabelShortcut extends ActivityWithDialog {
 		DisplayMetrics dm = new DisplayMetrics();
 		getWindowManager().getDefaultDisplay().getMetrics(dm);
 		final float density = dm.density;
-		final int iconSize = (int) (48 * density);
+		final int iconSize = IconCache.getIconSize(this);
 		final int width = (int) (65 * density);
 		final int height = (int) (78 * density);
 		final AbsListView.LayoutParams layoutParams = new AbsListView.LayoutParams(width, height);
@@ -296,8 +298,7 @@ public class LabelShortcut extends ActivityWithDialog {
 				Drawable b = null;
 				if (cursor.getColumnCount() == 4) {
 					if (!cursor.isNull(3)) {
-						byte[] imageBytes = cursor.getBlob(3);
-						b = new BitmapDrawable(BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length));
+						b = new BitmapDrawable(IconCache.getInstance().getLabelIcon(cursor.getLong(0), cursor.getBlob(3), iconSize));
 					} else {
 						if (!cursor.isNull(2)) {
 							int ic = Label.convertToIcon(cursor.getInt(2));
@@ -306,13 +307,17 @@ public class LabelShortcut extends ActivityWithDialog {
 							}
 						}
 					}
-				} else {
-					byte[] imageBytes = cursor.getBlob(2);
-					if (imageBytes != null) {
-						Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-						if (bitmap != null) {
-							b = new BitmapDrawable(bitmap);
-						}
+				} else if (!cursor.isNull(2)) {
+					// the pixels are copied from the atlas in the bitmap of
+					// the cell, a missing icon is added in background and the
+					// grid is refreshed
+					IconAtlas atlas = IconAtlas.getInstance(context, iconSize);
+					Bitmap bitmap = atlas.getIcon(cursor.getLong(2), (Bitmap) v.getTag());
+					if (bitmap != null) {
+						v.setTag(bitmap);
+						b = new BitmapDrawable(bitmap);
+					} else {
+						atlas.addInBackground(getDbHelper().getDb(), cursor.getLong(2), handler, refreshGrid);
 					}
 				}
 				if (b == null) {
@@ -328,6 +333,16 @@ public class LabelShortcut extends ActivityWithDialog {
 
 	private SimpleCursorAdapter cursorAdapter;
 
+	private final Handler handler = new Handler();
+
+	private final Runnable refreshGrid = new Runnable() {
+		public void run() {
+			if (cursorAdapter != null) {
+				cursorAdapter.notifyDataSetChanged();
+			}
+		}
+	};
+
 	private void createGrid() {
 		setContentView(R.layout.shortcut_grid);
 
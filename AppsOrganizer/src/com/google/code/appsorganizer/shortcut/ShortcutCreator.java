@@ -24,7 +24,6 @@ import android.app.Activity;
 import android.app.ListActivity;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.view.View;
@@ -34,6 +33,7 @@ import com.google.code.appsorganizer.R;
 import com.google.code.appsorganizer.db.DatabaseHelper;
 import com.google.code.appsorganizer.model.Label;
 import com.google.code.appsorganizer.utils.ArrayAdapterSmallRow;
+import com.google.code.appsorganizer.utils.IconCache;
 
 /**
  * @author fabio
@@ -77,7 +77,7 @@ public class ShortcutCreator extends ListActivity {
 		intent.putExtra(Intent.EXTRA_SHORTCUT_NAME, name);
 
 		if (imageBytes != null) {
-			intent.putExtra(Intent.EXTRA_SHORTCUT_ICON, BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length));
+			intent.putExtra(Intent.EXTRA_SHORTCUT_ICON, IconCache.getInstance().getLabelIcon(id, imageBytes, 0));
 		} else {
 			Parcelable iconResource = Intent.ShortcutIconResource.fromContext(a, icon);
 			intent.putExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE, iconResource);
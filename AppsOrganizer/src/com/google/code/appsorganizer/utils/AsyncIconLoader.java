@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.utils;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Process;
+import android.widget.ImageView;
+
+/**
+ * Loads the app icons in a background thread: the view shows a placeholder
+ * until the icon is decoded, the icon id is stored in the view tag so that
+ * the result is dropped if the view has been bound to another app. Must be
+ * created and used in the ui thread
+ */
+public class AsyncIconLoader {
+
+	/**
+	 * also used by the icon atlas to add the tiles
+	 */
+	static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "IconLoader") {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					super.run();
+				}
+			};
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final Handler handler = new Handler();
+
+	private final SQLiteDatabase db;
+
+	private final int size;
+
+	/**
+	 * last icon requested for every view not yet loaded
+	 */
+	private final HashMap<ImageView, Long> pending = new HashMap<ImageView, Long>();
+
+	public AsyncIconLoader(SQLiteDatabase db, int size) {
+		this.db = db;
+		this.size = size;
+	}
+
+	public void load(final ImageView view, long iconId, int placeholder) {
+		Long id = iconId;
+		view.setTag(id);
+		Bitmap b = IconCache.getInstance().peekAppIcon(iconId, size);
+		if (b != null) {
+			cancel(view, id);
+			view.setImageBitmap(b);
+			return;
+		}
+		view.setImageResource(placeholder);
+		synchronized (pending) {
+			if (pending.put(view, id) != null) {
+				// a task for this view is already queued, it will load
+				// the new icon
+				return;
+			}
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				loadInBackground(view);
+			}
+		});
+	}
+
+	/**
+	 * Drops the pending request of the view, to be called when the view is
+	 * bound to an app without icon
+	 */
+	public void cancel(ImageView view) {
+		cancel(view, null);
+	}
+
+	private void cancel(ImageView view, Long tag) {
+		view.setTag(tag);
+		synchronized (pending) {
+			pending.remove(view);
+		}
+	}
+
+	private void loadInBackground(final ImageView view) {
+		final Long id;
+		synchronized (pending) {
+			id = pending.remove(view);
+		}
+		if (id == null) {
+			return;
+		}
+		final Bitmap b = IconCache.getInstance().getAppIcon(db, id, size);
+		if (b != null) {
+			handler.post(new Runnable() {
+				public void run() {
+					if (id.equals(view.getTag())) {
+						view.setImageBitmap(b);
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.utils;
+
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongIntHashMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Bitmap.Config;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.code.appsorganizer.AppsOrganizerApplication;
+import com.google.code.appsorganizer.db.IconDao;
+
+/**
+ * Decoded icons stored as raw ARGB tiles in a memory mapped file, a tile is
+ * copied in a reusable bitmap without decoding the png. Tiles are indexed by
+ * icon id (icons are content addressed so a tile never changes), the index
+ * is a second file with the icon id of every tile. There is an atlas for
+ * every tile size, icons are scaled when the tile is created. The tiles are
+ * added in the icon loader thread, the ui thread only copies them
+ */
+public class IconAtlas {
+
+	/**
+	 * the file is mapped in chunks of CHUNK_TILES tiles, every chunk is mapped
+	 * once (the tiles added later are visible in the mapping)
+	 */
+	private static final int CHUNK_TILES = 16;
+
+	private static final TIntObjectHashMap<IconAtlas> atlases = new TIntObjectHashMap<IconAtlas>();
+
+	private final int tileSize;
+
+	private final int tileBytes;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	private final TLongIntHashMap slots = new TLongIntHashMap();
+
+	private int tiles;
+
+	private RandomAccessFile data;
+
+	private final ArrayList<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+
+	private DataOutputStream index;
+
+	private final ByteBuffer tileBuffer;
+
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * icons waiting to be added, guarded by itself
+	 */
+	private final TLongHashSet queued = new TLongHashSet();
+
+	/**
+	 * bitmap used to decode the icons, only in the icon loader thread
+	 */
+	private Bitmap decodeTile;
+
+	private IconAtlas(Context context, int tileSize) {
+		this.tileSize = tileSize;
+		tileBytes = tileSize * tileSize * 4;
+		tileBuffer = ByteBuffer.allocate(tileBytes);
+		dataFile = context.getFileStreamPath("icon_atlas_" + tileSize + ".dat");
+		indexFile = context.getFileStreamPath("icon_atlas_" + tileSize + ".idx");
+	}
+
+	/**
+	 * Returns the atlas of the icons of size x size pixels
+	 */
+	public static IconAtlas getInstance(Context context, int size) {
+		synchronized (atlases) {
+			IconAtlas atlas = atlases.get(size);
+			if (atlas == null) {
+				atlas = new IconAtlas(context.getApplicationContext(), size);
+				atlases.put(size, atlas);
+			}
+			return atlas;
+		}
+	}
+
+	/**
+	 * Returns the icon with the given id, if reuse is a mutable ARGB bitmap
+	 * of the size of the tiles the pixels are copied in it. Returns null if
+	 * the icon is not in the atlas, the png is never decoded here
+	 */
+	public synchronized Bitmap getIcon(long iconId, Bitmap reuse) {
+		try {
+			open();
+			if (!slots.containsKey(iconId)) {
+				return null;
+			}
+			Bitmap tile = reuse;
+			if (tile == null || !isTile(tile)) {
+				tile = Bitmap.createBitmap(tileSize, tileSize, Config.ARGB_8888);
+			}
+			copyTile(slots.get(iconId), tile);
+			return tile;
+		} catch (IOException e) {
+			Log.w(AppsOrganizerApplication.TAG, "Icon atlas not available", e);
+			close();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the icon in the icon loader thread, onAdded is posted on the
+	 * handler when all the queued icons have been added
+	 */
+	public void addInBackground(final SQLiteDatabase db, final long iconId, final Handler handler, final Runnable onAdded) {
+		synchronized (queued) {
+			if (!queued.add(iconId)) {
+				return;
+			}
+		}
+		AsyncIconLoader.executor.execute(new Runnable() {
+			public void run() {
+				add(db, iconId);
+				boolean drained;
+				synchronized (queued) {
+					queued.remove(iconId);
+					drained = queued.isEmpty();
+				}
+				if (drained) {
+					handler.post(onAdded);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds all the icons not in the atlas in the icon loader thread, to be
+	 * called after a reload. The atlas is rebuilt if more than a quarter of
+	 * the tiles are of icons no longer stored
+	 */
+	public void addAllInBackground(final SQLiteDatabase db) {
+		AsyncIconLoader.executor.execute(new Runnable() {
+			public void run() {
+				addAll(db);
+			}
+		});
+	}
+
+	private void addAll(SQLiteDatabase db) {
+		long[] ids = IconDao.getIconIds(db);
+		TLongHashSet stored = new TLongHashSet(ids);
+		synchronized (this) {
+			try {
+				open();
+				int stale = 0;
+				for (long id : slots.keys()) {
+					if (!stored.contains(id)) {
+						stale++;
+					}
+				}
+				if (stale * 4 > tiles) {
+					clear();
+				}
+			} catch (IOException e) {
+				Log.w(AppsOrganizerApplication.TAG, "Icon atlas not available", e);
+				close();
+				return;
+			}
+		}
+		for (long id : ids) {
+			add(db, id);
+		}
+	}
+
+	/**
+	 * Decodes the icon out of the lock, the ui thread can copy the other
+	 * tiles in the meantime
+	 */
+	private void add(SQLiteDatabase db, long iconId) {
+		synchronized (this) {
+			if (data != null && slots.containsKey(iconId)) {
+				return;
+			}
+		}
+		if (decodeTile == null) {
+			decodeTile = Bitmap.createBitmap(tileSize, tileSize, Config.ARGB_8888);
+		}
+		if (!decode(db, iconId, decodeTile)) {
+			return;
+		}
+		synchronized (this) {
+			try {
+				open();
+				if (!slots.containsKey(iconId)) {
+					addTile(iconId, decodeTile);
+				}
+			} catch (IOException e) {
+				Log.w(AppsOrganizerApplication.TAG, "Icon atlas not available", e);
+				close();
+			}
+		}
+	}
+
+	private boolean isTile(Bitmap b) {
+		return b.isMutable() && b.getConfig() == Config.ARGB_8888 && b.getWidth() == tileSize && b.getHeight() == tileSize;
+	}
+
+	private void open() throws IOException {
+		if (data != null) {
+			return;
+		}
+		data = new RandomAccessFile(dataFile, "rw");
+		int dataTiles = (int) (data.length() / tileBytes);
+		tiles = 0;
+		slots.clear();
+		if (indexFile.exists()) {
+			DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+			try {
+				while (tiles < dataTiles) {
+					slots.put(in.readLong(), tiles++);
+				}
+			} catch (EOFException ignored) {
+			} finally {
+				in.close();
+			}
+		}
+		// tiles not in the index (and the empty end of the last mapped
+		// chunk) are discarded, the index is written after the data
+		data.setLength((long) tiles * tileBytes);
+		rewriteIndex();
+	}
+
+	private void rewriteIndex() throws IOException {
+		long[] ids = new long[tiles];
+		for (long id : slots.keys()) {
+			ids[slots.get(id)] = id;
+		}
+		index = new DataOutputStream(new FileOutputStream(indexFile));
+		for (long id : ids) {
+			index.writeLong(id);
+		}
+		index.flush();
+	}
+
+	private void copyTile(int slot, Bitmap tile) throws IOException {
+		int chunk = slot / CHUNK_TILES;
+		long chunkBytes = (long) CHUNK_TILES * tileBytes;
+		while (chunks.size() <= chunk) {
+			chunks.add(null);
+		}
+		MappedByteBuffer mapped = chunks.get(chunk);
+		if (mapped == null) {
+			// the whole chunk must be in the file to be mapped
+			long end = (chunk + 1) * chunkBytes;
+			if (data.length() < end) {
+				data.setLength(end);
+			}
+			mapped = data.getChannel().map(FileChannel.MapMode.READ_ONLY, chunk * chunkBytes, chunkBytes);
+			chunks.set(chunk, mapped);
+		}
+		ByteBuffer b = mapped.duplicate();
+		int offset = (slot % CHUNK_TILES) * tileBytes;
+		b.position(offset);
+		b.limit(offset + tileBytes);
+		tile.copyPixelsFromBuffer(b);
+	}
+
+	private void addTile(long iconId, Bitmap tile) throws IOException {
+		tileBuffer.clear();
+		tile.copyPixelsToBuffer(tileBuffer);
+		tileBuffer.flip();
+		FileChannel channel = data.getChannel();
+		long position = (long) tiles * tileBytes;
+		while (tileBuffer.hasRemaining()) {
+			position += channel.write(tileBuffer, position);
+		}
+		index.writeLong(iconId);
+		index.flush();
+		slots.put(iconId, tiles++);
+	}
+
+	private void clear() throws IOException {
+		chunks.clear();
+		slots.clear();
+		tiles = 0;
+		data.setLength(0);
+		index.close();
+		rewriteIndex();
+	}
+
+	private boolean decode(SQLiteDatabase db, long iconId, Bitmap tile) {
+		byte[] image = IconDao.getImage(db, iconId);
+		if (image == null) {
+			return false;
+		}
+		Bitmap bitmap = IconCodec.decode(image);
+		if (bitmap == null) {
+			return false;
+		}
+		tile.eraseColor(0);
+		Canvas canvas = new Canvas(tile);
+		canvas.drawBitmap(bitmap, null, new Rect(0, 0, tileSize, tileSize), paint);
+		bitmap.recycle();
+		return true;
+	}
+
+	public synchronized void close() {
+		chunks.clear();
+		try {
+			if (index != null) {
+				index.close();
+			}
+			if (data != null) {
+				data.close();
+			}
+		} catch (IOException ignored) {
+		}
+		index = null;
+		data = null;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+
+import com.google.code.appsorganizer.db.IconDao;
+
+/**
+ * Process wide LRU cache of the decoded app and label icons, the total size
+ * of the bitmaps is limited to a fraction of the heap. App icons are keyed
+ * by icon id (the content of an icon id never changes), label icons by label
+ * id and must be invalidated when the label image changes. Every icon is
+ * cached scaled at the requested size (a variant for every size used, 0
+ * means the original size)
+ */
+public class IconCache {
+
+	/**
+	 * size of the icons in the lists and in the shortcuts
+	 */
+	public static final int ICON_DIP = 48;
+
+	private static final long LABEL_KEY = 1L << 62;
+
+	private static final int SIZE_SHIFT = 44;
+
+	private static final IconCache singleton = new IconCache(Runtime.getRuntime().maxMemory() / 8);
+
+	private final LinkedHashMap<Long, Bitmap> bitmaps = new LinkedHashMap<Long, Bitmap>(64, 0.75f, true);
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	IconCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public static IconCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Size in pixels of the icons for the density of the display
+	 */
+	public static int getIconSize(Context context) {
+		return (int) (ICON_DIP * context.getResources().getDisplayMetrics().density + 0.5f);
+	}
+
+	/**
+	 * Returns the decoded image of the icon, null if the icon doesn't exist
+	 */
+	public Bitmap getAppIcon(SQLiteDatabase db, long iconId, int size) {
+		long key = getKey(iconId, size);
+		Bitmap b = get(key);
+		if (b == null) {
+			b = put(key, IconDao.getImage(db, iconId), size);
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the decoded image of the icon only if it's in the cache
+	 */
+	public Bitmap peekAppIcon(long iconId, int size) {
+		return get(getKey(iconId, size));
+	}
+
+	/**
+	 * Returns the decoded label image, image is decoded only if not already
+	 * in the cache
+	 */
+	public Bitmap getLabelIcon(long labelId, byte[] image, int size) {
+		long key = LABEL_KEY | getKey(labelId, size);
+		Bitmap b = get(key);
+		if (b == null) {
+			b = put(key, image, size);
+		}
+		return b;
+	}
+
+	public synchronized void invalidateLabel(long labelId) {
+		removeAllSizes(LABEL_KEY | labelId);
+	}
+
+	public synchronized void clear() {
+		bitmaps.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getSize() {
+		return bytes;
+	}
+
+	private synchronized Bitmap get(long key) {
+		return bitmaps.get(key);
+	}
+
+	private Bitmap put(long key, byte[] image, int size) {
+		if (image == null) {
+			return null;
+		}
+		// decoded outside the lock, the same icon can be decoded twice
+		Bitmap b = IconCodec.decode(image);
+		if (b != null && size > 0 && (b.getWidth() != size || b.getHeight() != size)) {
+			Bitmap scaled = Bitmap.createScaledBitmap(b, size, size, true);
+			b.recycle();
+			b = scaled;
+		}
+		if (b != null) {
+			synchronized (this) {
+				remove(key);
+				bitmaps.put(key, b);
+				bytes += getBytes(b);
+				trim();
+			}
+		}
+		return b;
+	}
+
+	private void remove(long key) {
+		Bitmap old = bitmaps.remove(key);
+		if (old != null) {
+			bytes -= getBytes(old);
+		}
+	}
+
+	private void removeAllSizes(long key) {
+		long mask = (1L << SIZE_SHIFT) - 1;
+		Iterator<Map.Entry<Long, Bitmap>> it = bitmaps.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Bitmap> e = it.next();
+			long k = e.getKey();
+			if ((k & mask) == (key & mask) && (k & LABEL_KEY) == (key & LABEL_KEY)) {
+				bytes -= getBytes(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	private static long getKey(long id, int size) {
+		return ((long) size << SIZE_SHIFT) | id;
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<Long, Bitmap>> it = bitmaps.entrySet().iterator();
+		// the last entry is kept even if larger than the budget
+		while (bytes > maxBytes && bitmaps.size() > 1 && it.hasNext()) {
+			bytes -= getBytes(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	private static long getBytes(Bitmap b) {
+		return (long) b.getRowBytes() * b.getHeight();
+	}
+}
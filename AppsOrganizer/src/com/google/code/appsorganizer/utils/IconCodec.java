@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.preference.PreferenceManager;
+
+/**
+ * Encoding of the icons stored in the db. The compressed formats are decoded
+ * by BitmapFactory, the raw formats start with a header (magic, format,
+ * width and height) so decode works on the icons stored with any codec
+ */
+public abstract class IconCodec {
+
+	public static final String PREFERENCE = "icon_format";
+
+	private static final byte[] MAGIC = { 'A', 'O', 'I' };
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte RGB_565_FORMAT = '5';
+
+	private static final byte ARGB_DEFLATE_FORMAT = 'D';
+
+	public static final IconCodec PNG = new CompressCodec("png", CompressFormat.PNG, 100);
+
+	/**
+	 * Doesn't keep the transparency
+	 */
+	public static final IconCodec JPEG = new CompressCodec("jpeg", CompressFormat.JPEG, 90);
+
+	/**
+	 * Null before Android 4.0
+	 */
+	public static final IconCodec WEBP = createWebp();
+
+	public static final IconCodec RGB_565 = new RawCodec("rgb565", RGB_565_FORMAT, Config.RGB_565);
+
+	public static final IconCodec ARGB_DEFLATE = new RawCodec("argb_deflate", ARGB_DEFLATE_FORMAT, Config.ARGB_8888);
+
+	private final String name;
+
+	IconCodec(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns null if the bitmap can't be encoded
+	 */
+	public abstract byte[] encode(Bitmap bitmap);
+
+	/**
+	 * Returns the codec chosen in the preferences
+	 */
+	public static IconCodec getInstance(Context context) {
+		return forName(PreferenceManager.getDefaultSharedPreferences(context).getString(PREFERENCE, PNG.name));
+	}
+
+	/**
+	 * Returns the codec with the given name, PNG if it's not available
+	 */
+	public static IconCodec forName(String name) {
+		for (IconCodec codec : getAvailableCodecs()) {
+			if (codec.name.equals(name)) {
+				return codec;
+			}
+		}
+		return PNG;
+	}
+
+	public static ArrayList<IconCodec> getAvailableCodecs() {
+		ArrayList<IconCodec> codecs = new ArrayList<IconCodec>(5);
+		codecs.add(PNG);
+		codecs.add(JPEG);
+		if (WEBP != null) {
+			codecs.add(WEBP);
+		}
+		codecs.add(RGB_565);
+		codecs.add(ARGB_DEFLATE);
+		return codecs;
+	}
+
+	public static Bitmap decode(byte[] image) {
+		if (image.length >= HEADER_SIZE && image[0] == MAGIC[0] && image[1] == MAGIC[1] && image[2] == MAGIC[2]) {
+			return RawCodec.decodeRaw(image);
+		}
+		return BitmapFactory.decodeByteArray(image, 0, image.length);
+	}
+
+	private static IconCodec createWebp() {
+		try {
+			return new CompressCodec("webp", CompressFormat.valueOf("WEBP"), 90);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static class CompressCodec extends IconCodec {
+
+		private final CompressFormat format;
+
+		private final int quality;
+
+		CompressCodec(String name, CompressFormat format, int quality) {
+			super(name);
+			this.format = format;
+			this.quality = quality;
+		}
+
+		@Override
+		public byte[] encode(Bitmap bitmap) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			if (!bitmap.compress(format, quality, os)) {
+				return null;
+			}
+			return os.toByteArray();
+		}
+	}
+
+	private static class RawCodec extends IconCodec {
+
+		private final byte format;
+
+		private final Config config;
+
+		RawCodec(String name, byte format, Config config) {
+			super(name);
+			this.format = format;
+			this.config = config;
+		}
+
+		@Override
+		public byte[] encode(Bitmap bitmap) {
+			if (bitmap.getConfig() != config) {
+				bitmap = bitmap.copy(config, false);
+				if (bitmap == null) {
+					return null;
+				}
+			}
+			int width = bitmap.getWidth();
+			int height = bitmap.getHeight();
+			ByteBuffer pixels = ByteBuffer.allocate(bitmap.getRowBytes() * height);
+			bitmap.copyPixelsToBuffer(pixels);
+
+			byte[] data = pixels.array();
+			int length = data.length;
+			if (format == ARGB_DEFLATE_FORMAT) {
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				deflater.setInput(data);
+				deflater.finish();
+				ByteArrayOutputStream os = new ByteArrayOutputStream(length / 2);
+				byte[] buffer = new byte[4096];
+				while (!deflater.finished()) {
+					os.write(buffer, 0, deflater.deflate(buffer));
+				}
+				deflater.end();
+				data = os.toByteArray();
+				length = data.length;
+			}
+			byte[] res = new byte[HEADER_SIZE + length];
+			ByteBuffer.wrap(res).put(MAGIC).put(format).putShort((short) width).putShort((short) height).put(data, 0, length);
+			return res;
+		}
+
+		static Bitmap decodeRaw(byte[] image) {
+			ByteBuffer header = ByteBuffer.wrap(image, MAGIC.length, HEADER_SIZE - MAGIC.length);
+			byte format = header.get();
+			int width = header.getShort();
+			int height = header.getShort();
+			if (width <= 0 || height <= 0) {
+				return null;
+			}
+			Bitmap bitmap;
+			if (format == RGB_565_FORMAT) {
+				bitmap = Bitmap.createBitmap(width, height, Config.RGB_565);
+				bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(image, HEADER_SIZE, image.length - HEADER_SIZE));
+			} else if (format == ARGB_DEFLATE_FORMAT) {
+				bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+				byte[] pixels = new byte[bitmap.getRowBytes() * height];
+				Inflater inflater = new Inflater();
+				try {
+					inflater.setInput(image, HEADER_SIZE, image.length - HEADER_SIZE);
+					inflater.inflate(pixels);
+				} catch (DataFormatException e) {
+					bitmap.recycle();
+					return null;
+				} finally {
+					inflater.end();
+				}
+				bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+			} else {
+				return null;
+			}
+			return bitmap;
+		}
+	}
+}
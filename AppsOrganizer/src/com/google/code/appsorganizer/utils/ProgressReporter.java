@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2009 Apps Organizer
+ *
+ * This file is part of Apps Organizer
+ *
+ * Apps Organizer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Apps Organizer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Apps Organizer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.google.code.appsorganizer.utils;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * Sends the progress of a background operation to a ui handler. Updates are
+ * coalesced: at most one message every MIN_INTERVAL ms is sent, with the
+ * latest position and label. The max is sent in arg1, the position in arg2
+ * and the label in obj (arg1 is 0 in progress messages)
+ */
+public class ProgressReporter {
+
+	public static final long MIN_INTERVAL = 100;
+
+	private final Handler handler;
+
+	private final int what;
+
+	private int position;
+
+	private Object label;
+
+	private long lastSent;
+
+	private boolean pending;
+
+	public ProgressReporter(Handler handler) {
+		this(handler, 0);
+	}
+
+	public ProgressReporter(Handler handler, int what) {
+		this.handler = handler;
+		this.what = what;
+	}
+
+	public synchronized void setMax(int max) {
+		Message message = Message.obtain(handler, what);
+		message.arg1 = max;
+		message.sendToTarget();
+	}
+
+	public synchronized void increment(Object label) {
+		update(position + 1, label);
+	}
+
+	public synchronized void update(int position, Object label) {
+		this.position = position;
+		this.label = label;
+		pending = true;
+		long now = SystemClock.uptimeMillis();
+		if (now - lastSent >= MIN_INTERVAL) {
+			send(now);
+		}
+	}
+
+	/**
+	 * Sends the last update if it has been coalesced, to be called before
+	 * notifying the end of the operation
+	 */
+	public synchronized void flush() {
+		if (pending) {
+			send(SystemClock.uptimeMillis());
+		}
+	}
+
+	private void send(long now) {
+		Message message = Message.obtain(handler, what, 0, position, label);
+		message.sendToTarget();
+		lastSent = now;
+		pending = false;
+	}
+}